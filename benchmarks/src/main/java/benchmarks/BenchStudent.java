@@ -0,0 +1,44 @@
+package benchmarks;
+
+/**
+ * Copy of the demo Student key (id + name, hashCode() using Objects.hash).
+ * <p>
+ * The demo classes are in the default package, and classes in a named package
+ * (which JMH requires) cannot import them, so the benchmarks use this copy.
+ * Keep hashCode() and equals() the same as Student's so the results apply to it.
+ */
+
+import java.util.Comparator;
+import java.util.Objects;
+
+final class BenchStudent {
+
+    /** Same ordering as ComparatorStudentName, with id added so that keys are unique. */
+    static final Comparator<BenchStudent> BY_NAME =
+            Comparator.comparing((BenchStudent s) -> s.name).thenComparingInt(s -> s.id);
+
+    final int id;
+    final String name;
+
+    BenchStudent(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        BenchStudent other = (BenchStudent) obj;
+        return id == other.id && Objects.equals(name, other.name);
+    }
+}
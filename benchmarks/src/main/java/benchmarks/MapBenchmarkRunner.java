@@ -0,0 +1,32 @@
+package benchmarks;
+
+/**
+ * Runs all the map benchmarks and writes the results to a JSON file, so that
+ * results from different runs can be compared to find regressions.
+ * <p>
+ * Usage: MapBenchmarkRunner [results-file] [benchmark-regex]
+ *   default results file is map-results.json, default regex runs all benchmarks.
+ */
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class MapBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String resultsFile = args.length > 0 ? args[0] : "map-results.json";
+        String include = args.length > 1 ? args[1] : "benchmarks\\..*Benchmark";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultsFile)
+                .build();
+
+        new Runner(options).run();
+        System.out.println("Results written to " + resultsFile);
+    }
+}
@@ -0,0 +1,166 @@
+package benchmarks;
+
+/**
+ * Benchmarks the basic Map operations used in map1() - map9() of AppMainMapsDemo,
+ * for each combination of:
+ *   mapType  - HashMap, TreeMap or LinkedHashMap
+ *   keyType  - STRING (map1, map2, map4, map8), INTEGER (map3, map5, map6)
+ *              or STUDENT (map7, map9)
+ *   size     - number of entries in the map
+ * <p>
+ * Scores are average times:
+ * - get, containsKey and removeThenPut are per operation (half of the
+ *   lookups are for keys that are not in the map, like "Elvis" in map1()).
+ * - put is the time to build a whole map of 'size' entries.
+ * - entrySetIteration and keySetThenGet are the time to visit every entry once.
+ *   keySetThenGet is the pattern used in map3() and getShortTitledBooks().
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapOperationsBenchmark {
+
+    static final int LOOKUPS = 1024;  // keys looked up per get/containsKey invocation
+
+    @Param({"HashMap", "TreeMap", "LinkedHashMap"})
+    public String mapType;
+
+    @Param({"STRING", "INTEGER", "STUDENT"})
+    public String keyType;
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private Object[] keys;          // keys in the map
+    private Object[] lookupKeys;    // half present, half missing, in random order
+    private BenchBook[] books;
+    private Map<Object, BenchBook> map;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new Object[size];
+        books = new BenchBook[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = key(i);
+            books[i] = new BenchBook(30000 + i, "Title " + i);
+        }
+
+        Random random = new Random(42);
+        lookupKeys = new Object[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int k = random.nextInt(size);
+            lookupKeys[i] = random.nextBoolean() ? keys[k] : key(size + k);  // hit or miss
+        }
+
+        map = newMap();
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], books[i]);
+        }
+    }
+
+    @Benchmark
+    public Map<Object, BenchBook> put() {
+        Map<Object, BenchBook> m = newMap();
+        for (int i = 0; i < keys.length; i++) {
+            m.put(keys[i], books[i]);
+        }
+        return m;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void get(Blackhole bh) {
+        for (Object key : lookupKeys) {
+            bh.consume(map.get(key));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void containsKey(Blackhole bh) {
+        for (Object key : lookupKeys) {
+            bh.consume(map.containsKey(key));
+        }
+    }
+
+    /**
+     * Removes an entry and puts it back, so the map stays the same size.
+     */
+    @Benchmark
+    public BenchBook removeThenPut() {
+        int i = next;
+        next = (i + 1 == keys.length) ? 0 : i + 1;
+        BenchBook removed = map.remove(keys[i]);
+        map.put(keys[i], removed);
+        return removed;
+    }
+
+    @Benchmark
+    public void entrySetIteration(Blackhole bh) {
+        for (Map.Entry<Object, BenchBook> entry : map.entrySet()) {
+            bh.consume(entry.getKey());
+            bh.consume(entry.getValue());
+        }
+    }
+
+    @Benchmark
+    public void keySetThenGet(Blackhole bh) {
+        for (Object key : map.keySet()) {
+            bh.consume(key);
+            bh.consume(map.get(key));
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private Object key(int i) {
+        switch (keyType) {
+            case "STRING":
+                return "Name" + i;
+            case "INTEGER":
+                return 30000 + i * 7;  // spread out like book codes
+            case "STUDENT":
+                return new BenchStudent(1000 + i, "Student " + i);
+            default:
+                throw new IllegalArgumentException("Unknown keyType: " + keyType);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, BenchBook> newMap() {
+        switch (mapType) {
+            case "HashMap":
+                return new HashMap<>();
+            case "LinkedHashMap":
+                return new LinkedHashMap<>();
+            case "TreeMap":
+                // String and Integer use natural ordering; Students are ordered by name (as in map9())
+                Comparator<?> comparator = keyType.equals("STUDENT") ? BenchStudent.BY_NAME : Comparator.naturalOrder();
+                return new TreeMap<>((Comparator<Object>) comparator);
+            default:
+                throw new IllegalArgumentException("Unknown mapType: " + mapType);
+        }
+    }
+
+    /** Map value, same shape as the demo Book class. */
+    static final class BenchBook {
+        final int code;
+        final String title;
+
+        BenchBook(int code, String title) {
+            this.code = code;
+            this.title = title;
+        }
+    }
+}
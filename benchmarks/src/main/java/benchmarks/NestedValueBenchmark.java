@@ -0,0 +1,96 @@
+package benchmarks;
+
+/**
+ * Benchmarks the maps whose values are collections:
+ *   map4() - name => ArrayList of friends' names
+ *   map8() - name => HashMap of attributes ("Hair" => "Red", ...)
+ * <p>
+ * build* is the time to build the whole map of 'size' users.
+ * lookup* is the time per user looked up (then reading one friend or attribute).
+ */
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NestedValueBenchmark {
+
+    static final int LOOKUPS = 1024;
+    static final String[] HAIR = {"Red", "Black", "Brown", "Blonde"};
+    static final String[] HEIGHT = {"1.60", "1.68", "1.76", "1.82"};
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private String[] names;
+    private String[] lookupNames;
+    private Map<String, ArrayList<String>> friendsMap;
+    private Map<String, HashMap<String, String>> usersMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        names = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = "User" + i;
+        }
+        Random random = new Random(42);
+        lookupNames = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookupNames[i] = names[random.nextInt(size)];
+        }
+        friendsMap = buildFriendsMap();
+        usersMap = buildUsersMap();
+    }
+
+    @Benchmark
+    public Map<String, ArrayList<String>> buildFriendsMap() {
+        Map<String, ArrayList<String>> map = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ArrayList<String> friends = new ArrayList<>();
+            friends.add(names[(i + 1) % names.length]);
+            friends.add(names[(i + 7) % names.length]);
+            friends.add(names[(i + 31) % names.length]);
+            map.put(names[i], friends);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Map<String, HashMap<String, String>> buildUsersMap() {
+        Map<String, HashMap<String, String>> map = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            HashMap<String, String> attributes = new HashMap<>();
+            attributes.put("Hair", HAIR[i & 3]);
+            attributes.put("Height", HEIGHT[(i >> 2) & 3]);
+            if ((i & 1) == 0) {
+                attributes.put("Age", Integer.toString(18 + i % 50));
+            }
+            map.put(names[i], attributes);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookupFriends(Blackhole bh) {
+        for (String name : lookupNames) {
+            bh.consume(friendsMap.get(name).get(0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void lookupAttribute(Blackhole bh) {
+        for (String name : lookupNames) {
+            bh.consume(usersMap.get(name).get("Hair"));
+        }
+    }
+}
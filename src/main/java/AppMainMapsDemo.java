@@ -29,6 +29,9 @@
  * important to understand how to use them.
  */
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -47,6 +50,24 @@ public class AppMainMapsDemo {
 //         map7();     // HashMap: (Student=>Book) - hashCode() & equals()
 //         map8();     // HashMap: (String=>HashMap<String,String>
 //         map9();     // TreeMap: (Student=>Book) - Comparator required
+//         map10();    // BookIndex: int=>Book - no boxing of keys
+//         map11();    // BookStore: columns of book fields, titles stored off-heap
+//         map12();    // HashMap: (StudentKey=>Book) - immutable key, cached hashCode()
+//         map13();    // FavouriteBookRegistry: thread-safe (Student=>Book)
+//         map14();    // FriendsGraph: compact version of map4() (String=>friends)
+//         map15();    // AttributeStore: compact version of map8() (String=>attributes)
+//         map16();    // InstrumentedMap & CountingComparator: measuring map operations
+//         map17();    // BookCache: only the most used Books are kept in memory
+//         map18();    // StudentNameIndex: sorted (Student=>Book) with prefix search
+//         map19();    // MapSnapshot: save maps to a compact binary file and load them back
+//         map20();    // IncrementalHashMap: (String=>Integer) - grows without slow put() calls
+//         map21();    // BookLookupServer & BookLookupClient: using the maps over a socket
+//         map22();    // getAll() & putAll(): looking up many keys in one call
+//         map23();    // VersionedAttributes: map8() with unchanging snapshots for readers
+//         map24();    // IndexedBookMap: (Integer=>Book) that can also find Books by title
+//         map25();    // ShardedCatalogue: (Integer=>Book) split over several shards and JVMs
+//         map26();    // DurableFavouriteBooks: map7() saved to disk, so updates survive a crash
+//         map27();    // HashStrategy & HashQualityAnalyzer: Book as a key, and better hash codes
     }
 
     public static void map1() // HashMap: String=>String,  key=>value
@@ -245,12 +266,16 @@ public class AppMainMapsDemo {
     public static List<Book> getShortTitledBooks(Map<Integer, Book> bookMap, int maxLengthOfTitle) {
         // parameter bookMap is a reference to the original map
 
-        List<Book> bookList = new ArrayList<>(); // list to store the result
+        if (bookMap instanceof IndexedBookMap indexed) {
+            return indexed.withTitleNoLongerThan(maxLengthOfTitle);  // uses the title length index, no scan
+        }
 
-        Set<Integer> keySet = bookMap.keySet();
+        List<Book> bookList = new ArrayList<>(); // list to store the result
 
-        for (Integer key : keySet) {
-            Book book = bookMap.get(key);
+        // We only need the values (Books) here, so iterate over values() rather than
+        // getting the keySet() and then calling get(key) for each key, which would
+        // do every hash lookup twice.
+        for (Book book : bookMap.values()) {
             if (book.getTitle().length() <= maxLengthOfTitle) {
                 bookList.add(book);
             }
@@ -258,6 +283,14 @@ public class AppMainMapsDemo {
         return bookList;
     }
 
+    /**
+     * Same result as getShortTitledBooks(), but large maps are filtered in parallel
+     * on all CPU cores.  See BookFilters for other conditions (code range, title prefix).
+     */
+    public static List<Book> getShortTitledBooksParallel(Map<Integer, Book> bookMap, int maxLengthOfTitle) {
+        return BookFilters.filter(bookMap, BookFilters.titleNoLongerThan(maxLengthOfTitle));
+    }
+
     /**
      * TREE MAP maintains sorted order based on Natural Ordering [compareTo()] of Integer class.
      *
@@ -426,4 +459,473 @@ public class AppMainMapsDemo {
         }
     }
 
+    /**
+     * BookIndex stores int book codes directly, without boxing them into Integer
+     * objects, so it uses much less memory than a HashMap<Integer, Book>.
+     * asMap() lets us pass it to methods that expect a Map<Integer, Book>.
+     */
+    public static void map10() {
+        BookIndex bookIndex = new BookIndex();
+
+        bookIndex.put(30004, new Book(30004, "Fight Club")); // no autoboxing of the int key
+        bookIndex.put(40023, new Book(40023, "Jaws"));
+        bookIndex.put(55523, new Book(55523, "White Teeth"));
+        bookIndex.put(55523, new Book(55523, "Ted"));  // duplicate key, overwrites existing one
+
+        Book book = bookIndex.get(40023);
+        System.out.println("Code 40023 Title: " + book.getTitle());
+
+        // forEach() passes the key as a primitive int
+        bookIndex.forEach((code, b) -> System.out.println(code + " Title: " + b.getTitle()));
+
+        // the index can be used wherever a Map<Integer, Book> is expected
+        List<Book> shortTitledBookList = getShortTitledBooks(bookIndex.asMap(), 4);
+        System.out.println("Books with short titles (<=4 characters): " + shortTitledBookList);
+
+        System.out.println(bookIndex.memoryReport());
+    }
+
+    /**
+     * BookStore keeps book codes and title lengths in int arrays and the title
+     * text off-heap, so scanning for short titles creates no String objects.
+     * A BookStore uses native memory, so we close it with try-with-resources.
+     */
+    public static void map11() {
+        try (BookStore bookStore = new BookStore()) {
+            bookStore.add(30004, "Fight Club");
+            bookStore.add(40023, "Jaws");
+            bookStore.add(55523, "White Teeth");
+            bookStore.add(66623, "Ted");
+
+            System.out.println("Books with short titles (<=4 characters)");
+            for (Book book : bookStore.getShortTitledBooks(4)) {  // Book views, created only for matches
+                System.out.println(" Code:" + book.getCode() + ", Title: " + book.getTitle());
+            }
+            System.out.println(bookStore.memoryReport());
+        }
+    }
+
+    /**
+     * Same as map7(), but using the immutable StudentKey as the Key.
+     * A StudentKey cannot be changed after it is put into the map, and its
+     * hashCode() is calculated only once, when the key is created.
+     */
+    public static void map12() // Map (StudentKey => Book )   HashMap
+    {
+        Map<StudentKey, Book> favouriteBook = new HashMap<>();
+
+        favouriteBook.put(new StudentKey(1001, "Tom Malone"), new Book(30004, "Lazy Days"));
+
+        // an existing (mutable) Student can be converted to a key
+        Student student = new Student(2002, "Zoe Salanda");
+        favouriteBook.put(student.toKey(), new Book(40023, "Columbiana"));
+
+        // To change a key, remove the entry and put it back with a new key.
+        // (Calling student.setName() on a key in a map would corrupt the map.)
+        StudentKey key = student.toKey();
+        Book book = favouriteBook.remove(key);
+        favouriteBook.put(key.withName("Zoe Salanda-Smith"), book);
+
+        System.out.println("Map: [ StudentKey -> Book ]");
+        for (Map.Entry<StudentKey, Book> entry : favouriteBook.entrySet()) {
+            System.out.println("Student: " + entry.getKey() + ", favourite Book: " + entry.getValue());
+        }
+    }
+
+    /**
+     * FavouriteBookRegistry is a thread-safe version of the (Student => Book) maps
+     * in map7() and map9().  Here several threads add entries at the same time,
+     * and then we print the entries sorted by name.
+     */
+    public static void map13() {
+        FavouriteBookRegistry registry = new FavouriteBookRegistry();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int first = t * 1000;
+            Thread thread = new Thread(() -> {
+                for (int i = first; i < first + 1000; i++) {
+                    registry.put(new StudentKey(i, "Student " + i), new Book(30000 + i, "Title " + i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        // computeIfAbsent() only adds a Book if the student does not have one already
+        Book book = registry.computeIfAbsent(new StudentKey(2002, "Adam Ant"), s -> new Book(30053, "Mountains"));
+        System.out.println("Adam Ant's favourite Book: " + book);
+
+        System.out.println("Number of students: " + registry.size());
+        System.out.println("First three students in name order:");
+        registry.sortedSnapshot().entrySet().stream().limit(3)
+                .forEach(entry -> System.out.println("Student: " + entry.getKey() + ", favourite Book: " + entry.getValue()));
+    }
+
+    /**
+     * FriendsGraph stores the same information as the friendsMap in map4(), but
+     * each name is stored once and all friend lists are packed into one int array.
+     */
+    public static void map14() {
+        FriendsGraph friendsGraph = new FriendsGraph.Builder()
+                .addFriends("John", List.of("Kylie", "Donald", "Megan"))
+                .addFriends("Julie", List.of("Barak", "James", "Megan", "Kylie"))
+                .build();
+
+        String key = "John";
+        System.out.println(key + "'s friends: " + friendsGraph.friendsOf(key));
+        System.out.println("Mutual friends of John and Julie: " + friendsGraph.mutualFriends("John", "Julie"));
+        System.out.println("Is Barak a friend of John? " + friendsGraph.isFriend("John", "Barak"));
+    }
+
+    /**
+     * AttributeStore stores the same information as the usersMap in map8(), but
+     * each attribute name and value is stored only once, and each user's
+     * attributes are stored as ints in one column per attribute.
+     */
+    public static void map15() {
+        AttributeStore attributeStore = new AttributeStore();
+
+        attributeStore.put("John", "Hair", "Red");
+        attributeStore.put("John", "Height", "1.76");
+
+        attributeStore.put("Alice", "Hair", "Black");
+        attributeStore.put("Alice", "Height", "1.76");
+        attributeStore.put("Alice", "Age", "21");     // extra attribute
+
+        System.out.println("Alice's attributes: " + attributeStore.attributesOf("Alice"));
+        System.out.println("John's hair: " + attributeStore.get("John", "Hair"));
+        System.out.println("Users with Height 1.76: " + attributeStore.usersWhere("Height", "1.76"));
+    }
+
+    /**
+     * InstrumentedMap wraps a Map and records hits, misses and the time taken by
+     * each operation.  CountingComparator counts the comparisons made by a TreeMap.
+     */
+    public static void map16() {
+        InstrumentedMap<String, String> map = new InstrumentedMap<>(new HashMap<>(), 1); // time every call
+
+        map.put("John", "Alien");
+        map.put("Anne", "LaLa Land");
+        map.put("Zoe", "Trainspotting");
+
+        map.get("Zoe");     // hit
+        map.get("Elvis");   // miss
+        map.containsKey("Elvis");
+        System.out.println(map.report());
+
+        CountingComparator<Student> comparator = new CountingComparator<>(new ComparatorStudentName());
+        Map<Student, Book> favouriteBook = new TreeMap<>(comparator);
+        favouriteBook.put(new Student(1001, "Tom Malone"), new Book(30004, "Lazy Days"));
+        favouriteBook.put(new Student(2002, "Zoe Salanda"), new Book(40023, "Columbiana"));
+        favouriteBook.put(new Student(2003, "Adam Ant"), new Book(30053, "Mountains"));
+        System.out.println("TreeMap comparisons for 3 puts: " + comparator.getCount());
+    }
+
+    /**
+     * BookCache keeps only a limited number of Books in memory.  Books that are
+     * not in the cache are loaded by the loader function (here, from a HashMap that
+     * stands in for slower storage such as a file or database).
+     */
+    public static void map17() {
+        Map<Integer, Book> storage = new HashMap<>();
+        storage.put(30004, new Book(30004, "Fight Club"));
+        storage.put(40023, new Book(40023, "Jaws"));
+        storage.put(55523, new Book(55523, "White Teeth"));
+        storage.put(66623, new Book(66623, "Ted Bundy"));
+
+        BookCache cache = new BookCache(2, storage::get);  // room for only 2 books
+
+        cache.get(30004);   // miss - loaded from storage
+        cache.get(30004);   // hit
+        cache.get(40023);   // miss
+        cache.get(55523);   // miss - cache is full, so a book is evicted
+        Book book = cache.get(30004);   // 30004 was used twice, so it was protected from eviction
+        System.out.println("Code 30004 Title: " + book.getTitle());
+        System.out.println("Code 12345: " + cache.get(12345));  // not in storage, returns null
+
+        System.out.println(cache.stats());
+    }
+
+    /**
+     * StudentNameIndex keeps Students sorted by name, like the TreeMap in map9(),
+     * but two students with the same name are both kept (they are ordered by id),
+     * and we can quickly find all names that start with a prefix.
+     */
+    public static void map18() {
+        StudentNameIndex favouriteBook = new StudentNameIndex();
+
+        favouriteBook.put(new StudentKey(1001, "Tom Malone"), new Book(30004, "Lazy Days"));
+        favouriteBook.put(new StudentKey(2002, "Zoe Salanda"), new Book(40023, "Columbiana"));
+        favouriteBook.put(new StudentKey(2002, "Adam Ant"), new Book(30053, "Mountains"));
+        favouriteBook.put(new StudentKey(3003, "Adam Ant"), new Book(30004, "Lazy Days")); // same name, different student
+        favouriteBook.put(new StudentKey(4004, "Adele Adkins"), new Book(55523, "White Teeth"));
+
+        System.out.println("Map: [ Student -> Book ] sorted by name, then id");
+        favouriteBook.forEach((student, book) ->
+                System.out.println("Student: " + student + ", favourite Book: " + book));
+
+        System.out.println("Students whose name starts with \"Ad\":");
+        for (Map.Entry<StudentKey, Book> entry : favouriteBook.withNamePrefix("Ad")) {
+            System.out.println("Student: " + entry.getKey() + ", favourite Book: " + entry.getValue());
+        }
+    }
+
+    /**
+     * MapSnapshot saves a map to a compact binary file, and loads it back.
+     * Repeated strings (here the attribute names and values) are only written once.
+     */
+    public static void map19() {
+        Map<String, HashMap<String, String>> usersMap = new HashMap<>();
+
+        HashMap<String, String> attributesMap = new HashMap<>();
+        attributesMap.put("age", "32");
+        attributesMap.put("height", "186");
+        attributesMap.put("email", "johnS@mail.com");
+        usersMap.put("John", attributesMap);
+
+        attributesMap = new HashMap<>();
+        attributesMap.put("age", "32");
+        attributesMap.put("height", "164");
+        usersMap.put("Alice", attributesMap);
+
+        try {
+            Path file = Files.createTempFile("users", ".snap");
+            MapSnapshot.writeUserAttributes(file, usersMap, true);
+            System.out.println("Snapshot size: " + Files.size(file) + " bytes");
+
+            Map<String, HashMap<String, String>> restored = MapSnapshot.readUserAttributes(file);
+            System.out.println("Restored: " + restored);
+            System.out.println("Same as the original map? " + restored.equals(usersMap));
+            Files.delete(file);
+        } catch (IOException e) {
+            System.out.println("Could not save or load the snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * IncrementalHashMap is used like the HashMap in map2(), but when it grows it
+     * moves its entries to the bigger table a few at a time, so no single put() is slow.
+     * If we know how many entries to expect, we can say so and it never needs to grow.
+     */
+    public static void map20() {
+        IncrementalHashMap<String, Integer> ageMap = new IncrementalHashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            ageMap.put("Student" + i, 18 + i % 10);
+        }
+        System.out.println("Entries: " + ageMap.size() + ", buckets: " + ageMap.capacity()
+                + ", times grown: " + ageMap.resizeCount());
+        System.out.println("Student42 age: " + ageMap.get("Student42"));
+
+        IncrementalHashMap<String, Integer> presized = new IncrementalHashMap<>(100_000);  // expected size
+        for (int i = 0; i < 100_000; i++) {
+            presized.put("Student" + i, 18 + i % 10);
+        }
+        System.out.println("Pre-sized map grew " + presized.resizeCount() + " times");
+    }
+
+    /**
+     * BookLookupServer makes the book maps available to other programs over a
+     * socket.  Here the server and the client are in the same program, but the
+     * client could just as well be in another program on the same machine.
+     */
+    public static void map21() {
+        try (BookLookupServer server = new BookLookupServer().start(0);   // 0 = any free port
+             BookLookupClient client = new BookLookupClient(server.port())) {
+
+            client.putBook(new Book(30004, "Fight Club"));
+            client.putBook(new Book(40023, "Jaws"));
+            System.out.println("Code 30004 Title: " + client.getBook(30004).getTitle());
+            System.out.println("Contains 12345? " + client.containsBook(12345));
+
+            // many gets sent together, answered in one round trip
+            Book[] books = client.getBooks(new int[]{30004, 40023, 12345});
+            System.out.println("Batch: " + Arrays.toString(books));
+
+            // a batch far bigger than the socket buffers is sent a window at a time
+            Book[] many = new Book[200_000];
+            int[] codes = new int[many.length];
+            for (int i = 0; i < many.length; i++) {
+                many[i] = new Book(i, "Title " + i);
+                codes[i] = i;
+            }
+            client.putBooks(many);
+            System.out.println("Last of " + codes.length + ": " + client.getBooks(codes)[codes.length - 1]);
+
+            StudentKey student = new StudentKey(1001, "Tom Malone");
+            client.putFavourite(student, new Book(30004, "Fight Club"));
+            System.out.println(student + " favourite Book: " + client.getFavourite(student));
+
+            System.out.println("Server handled " + server.requestCount() + " requests");
+        } catch (IOException e) {
+            System.out.println("Lookup server failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * When we have many keys to look up at once, getAll() looks them all up in
+     * one call, instead of calling get() in a loop as in map1() and map3().
+     * BatchLookupBenchmark measures how much faster that is for a big index.
+     */
+    public static void map22() {
+        BookIndex bookIndex = new BookIndex();
+        int[] codes = {30004, 40023, 55523, 66623};
+        Book[] books = {new Book(30004, "Fight Club"), new Book(40023, "Jaws"),
+                new Book(55523, "White Teeth"), new Book(66623, "Ted Bundy")};
+        bookIndex.putAll(codes, books);
+
+        int[] wanted = {55523, 12345, 30004};
+        Book[] found = new Book[wanted.length];
+        int count = bookIndex.getAll(wanted, found);   // found[i] is the Book for wanted[i], or null
+        System.out.println("Found " + count + " of " + wanted.length + ": " + Arrays.toString(found));
+
+        StudentNameIndex favouriteBook = new StudentNameIndex();
+        StudentKey[] students = {new StudentKey(1001, "Tom Malone"), new StudentKey(2002, "Zoe Salanda"),
+                new StudentKey(2003, "Adam Ant")};
+        favouriteBook.putAll(students, new Book[]{books[0], books[1], books[2]});
+
+        Book[] favourites = new Book[students.length];
+        favouriteBook.getAll(students, favourites);
+        for (int i = 0; i < students.length; i++) {
+            System.out.println("Student: " + students[i] + ", favourite Book: " + favourites[i]);
+        }
+    }
+
+    /**
+     * VersionedAttributes holds the same data as map8(), but every change makes
+     * a new version of the map.  A snapshot taken earlier never changes, so a
+     * reader can use it without locks while other threads make changes.
+     */
+    public static void map23() {
+        VersionedAttributes attributes = new VersionedAttributes();
+        attributes.put("John", "Hair", "Red");
+        attributes.put("John", "Height", "1.76");
+        attributes.put("Alice", "Hair", "Black");
+
+        Map<String, PersistentHashMap<String, String>> before = attributes.snapshot();
+
+        attributes.put("John", "Hair", "Grey");
+        attributes.update(users -> {           // several changes, seen by readers all at once
+            users.remove("Alice");
+            users.put("Zoe", PersistentHashMap.<String, String>empty().with("Hair", "Brown"));
+        });
+
+        System.out.println("Before: " + before);
+        System.out.println("Now:    " + attributes.snapshot());
+    }
+
+    /**
+     * IndexedBookMap is a Map<Integer, Book> that also keeps the Books sorted by
+     * title and grouped by title length, so that finding Books by title does not
+     * have to look at every Book in the map.
+     */
+    public static void map24() {
+        IndexedBookMap bookMap = new IndexedBookMap();
+        bookMap.put(30004, new Book(30004, "Fight Club"));
+        bookMap.put(40023, new Book(40023, "Jaws"));
+        bookMap.put(55523, new Book(55523, "White Teeth"));
+        bookMap.put(66623, new Book(66623, "Ted"));
+        bookMap.put(77723, new Book(77723, "Whiplash"));
+
+        System.out.println("Titles starting with \"Wh\": " + bookMap.withTitlePrefix("Wh"));
+        System.out.println("Title \"Jaws\": " + bookMap.withTitle("Jaws"));
+
+        bookMap.remove(40023);   // the title indexes are updated too
+        List<Book> shortTitledBookList = getShortTitledBooks(bookMap, 4);
+        System.out.println("Books with short titles (<=4 characters): " + shortTitledBookList);
+    }
+
+    /**
+     * ShardedCatalogue splits the catalogue over several shards, keeping two
+     * copies of each Book.  Shards "a" and "b" are in this program; shard "c"
+     * is a BookLookupServer in a second JVM, started by ShardProcess.  When "c"
+     * is added, it is given its share of the Books from "a" and "b".
+     */
+    public static void map25() {
+        try (ShardedCatalogue catalogue = new ShardedCatalogue(2, true)) {
+            catalogue.addShard("a", new ShardedCatalogue.LocalShard());
+            catalogue.addShard("b", new ShardedCatalogue.LocalShard());
+            for (int code = 1; code <= 1000; code++) {
+                catalogue.put(new Book(code, "Title " + code));
+            }
+            catalogue.put(new Book(30004, "Fight Club"));
+            catalogue.put(new Book(40023, "Jaws"));
+            System.out.println("Books per shard: " + catalogue.shardSizes());
+
+            try (ShardProcess process = ShardProcess.start()) {
+                int moved = catalogue.addShard("c", new ShardedCatalogue.RemoteShard(process.port()));
+                System.out.println("Shard c (process " + process.pid() + ") was given " + moved + " Books");
+                System.out.println("Books per shard: " + catalogue.shardSizes());
+                for (Map.Entry<String, Double> share : catalogue.keyShares().entrySet()) {
+                    System.out.println(String.format(Locale.ROOT, "Shard %s owns %.1f%% of the keys",
+                            share.getKey(), share.getValue() * 100));
+                }
+
+                System.out.println("Code 40023 Title: " + catalogue.get(40023).getTitle());
+                System.out.println("Books with short titles (<=4 characters): "
+                        + catalogue.getShortTitledBooks(4));
+            }
+        } catch (IOException e) {
+            System.out.println("Sharded catalogue failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * DurableFavouriteBooks is map7() with updates that are not lost when the
+     * program stops: every put() is saved in a log file on disk, and opening
+     * the same directory again reads the saved entries back.
+     */
+    public static void map26() {
+        try {
+            Path directory = Files.createTempDirectory("favourites");
+            try (DurableFavouriteBooks favouriteBook =
+                         DurableFavouriteBooks.open(directory, DurableFavouriteBooks.Durability.GROUP_COMMIT)) {
+                favouriteBook.put(new Student(1001, "Tom Malone"), new Book(30004, "Lazy Days"));
+                favouriteBook.put(new Student(2002, "Zoe Salanda"), new Book(40023, "Columbiana"));
+                favouriteBook.checkpoint();   // save all entries in one file, and start a new log
+                favouriteBook.put(new Student(1001, "Tom Malone"), new Book(30053, "Mountains"));
+            }
+
+            // later, e.g. after a restart
+            try (DurableFavouriteBooks favouriteBook =
+                         DurableFavouriteBooks.open(directory, DurableFavouriteBooks.Durability.GROUP_COMMIT)) {
+                System.out.println("Recovered " + favouriteBook.size() + " favourite books");
+                System.out.println("Tom Malone's favourite Book: "
+                        + favouriteBook.get(new Student(1001, "Tom Malone")));
+            }
+        } catch (IOException e) {
+            System.out.println("Favourite books log failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Book has no hashCode() or equals(), so as a HashMap key two Books with the
+     * same code would be different keys.  A HashStrategy tells the map how to
+     * hash and compare the keys instead, without changing the Book class.
+     * HashQualityAnalyzer shows how evenly a hash function spreads the keys.
+     */
+    public static void map27() {
+        Map<Book, String> reviews = new IncrementalHashMap<>(0, HashMixers.BOOK_BY_CODE_MURMUR);
+        reviews.put(new Book(30004, "Fight Club"), "Great");
+        reviews.put(new Book(40023, "Jaws"), "Scary");
+        System.out.println("Review of code 30004: " + reviews.get(new Book(30004, "Fight Club")));
+
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            books.add(new Book(30004 + i * 1000, "Title " + i));   // codes 1000 apart
+        }
+        System.out.println(HashQualityAnalyzer.analyze("code itself", books,
+                HashMixers.BOOK_BY_CODE, HashQualityAnalyzer.BOOK_BITS));
+        System.out.println(HashQualityAnalyzer.analyze("murmur3", books,
+                HashMixers.BOOK_BY_CODE_MURMUR, HashQualityAnalyzer.BOOK_BITS));
+    }
 }
@@ -0,0 +1,196 @@
+/**
+ * AttributeStore - a compact version of the user => attributes map in map8().
+ * <p>
+ * map8() keeps a separate HashMap<String, String> for every user.  That is a
+ * whole hash table per user, holding the same attribute names ("Hair",
+ * "Height", ...) and the same few values ("Red", "Black", "1.76", ...) over
+ * and over again.
+ * <p>
+ * AttributeStore uses "dictionary encoding" (see StringDictionary) to give an
+ * int id to each user name, each attribute name and each distinct value.
+ * It then keeps one int[] "column" per attribute:
+ *     columns[attributeId][userId] = valueId   (or NONE if the user has no such attribute)
+ * So each user costs 4 bytes per attribute, instead of a HashMap with its
+ * entries.
+ * <p>
+ * A query such as "all users where Hair = Black" looks up the id of "Black"
+ * once, and then compares ints down a single column.
+ */
+
+import java.util.*;
+
+public class AttributeStore {
+
+    private static final int NONE = -1;
+
+    private final StringDictionary users = new StringDictionary();
+    private final StringDictionary attributeNames = new StringDictionary();
+    private final StringDictionary values = new StringDictionary();
+
+    private int[][] columns = new int[4][];
+    private int userCapacity = 16;
+
+    /**
+     * Builds an AttributeStore from a map like the one in map8().
+     */
+    public static AttributeStore from(Map<String, ? extends Map<String, String>> usersMap) {
+        AttributeStore store = new AttributeStore();
+        for (Map.Entry<String, ? extends Map<String, String>> user : usersMap.entrySet()) {
+            store.addUser(user.getKey());
+            for (Map.Entry<String, String> attribute : user.getValue().entrySet()) {
+                store.put(user.getKey(), attribute.getKey(), attribute.getValue());
+            }
+        }
+        return store;
+    }
+
+    public int userCount() {
+        return users.size();
+    }
+
+    public boolean containsUser(String userName) {
+        return users.idOf(userName) >= 0;
+    }
+
+    /**
+     * Adds a user with no attributes (does nothing if the user already exists).
+     */
+    public void addUser(String userName) {
+        int userId = users.add(userName);
+        if (userId >= userCapacity) {
+            growUsers(userCapacity * 2);
+        }
+    }
+
+    /**
+     * Sets an attribute of a user, adding the user if necessary.
+     * Returns the previous value, or null.
+     */
+    public String put(String userName, String attributeName, String value) {
+        Objects.requireNonNull(value, "value");
+        addUser(userName);
+        int userId = users.idOf(userName);
+        int[] column = column(attributeNames.add(attributeName));
+        int previous = column[userId];
+        column[userId] = values.add(value);
+        return previous == NONE ? null : values.get(previous);
+    }
+
+    /**
+     * Returns the value of a user's attribute, or null.
+     */
+    public String get(String userName, String attributeName) {
+        int userId = users.idOf(userName);
+        int attributeId = attributeNames.idOf(attributeName);
+        if (userId < 0 || attributeId < 0) {
+            return null;
+        }
+        int valueId = columns[attributeId][userId];
+        return valueId == NONE ? null : values.get(valueId);
+    }
+
+    /**
+     * Removes an attribute from a user.  Returns the removed value, or null.
+     */
+    public String remove(String userName, String attributeName) {
+        int userId = users.idOf(userName);
+        int attributeId = attributeNames.idOf(attributeName);
+        if (userId < 0 || attributeId < 0) {
+            return null;
+        }
+        int valueId = columns[attributeId][userId];
+        columns[attributeId][userId] = NONE;
+        return valueId == NONE ? null : values.get(valueId);
+    }
+
+    /**
+     * Returns all attributes of a user as a new Map (the same as one value of usersMap in map8()).
+     */
+    public Map<String, String> attributesOf(String userName) {
+        Map<String, String> attributes = new HashMap<>();
+        int userId = users.idOf(userName);
+        if (userId < 0) {
+            return attributes;
+        }
+        for (int a = 0; a < attributeNames.size(); a++) {
+            int valueId = columns[a][userId];
+            if (valueId != NONE) {
+                attributes.put(attributeNames.get(a), values.get(valueId));
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Returns the names of all users whose attribute has the given value,
+     * e.g. usersWhere("Hair", "Black").
+     */
+    public List<String> usersWhere(String attributeName, String value) {
+        List<String> result = new ArrayList<>();
+        int attributeId = attributeNames.idOf(attributeName);
+        int valueId = values.idOf(value);
+        if (attributeId < 0 || valueId < 0) {
+            return result;   // nobody can have a value that was never stored
+        }
+        int[] column = columns[attributeId];
+        int userCount = users.size();
+        for (int u = 0; u < userCount; u++) {
+            if (column[u] == valueId) {
+                result.add(users.get(u));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of users whose attribute has the given value.
+     */
+    public int countWhere(String attributeName, String value) {
+        int attributeId = attributeNames.idOf(attributeName);
+        int valueId = values.idOf(value);
+        if (attributeId < 0 || valueId < 0) {
+            return 0;
+        }
+        int[] column = columns[attributeId];
+        int count = 0;
+        int userCount = users.size();
+        for (int u = 0; u < userCount; u++) {
+            if (column[u] == valueId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Approximate heap usage in bytes (not counting the distinct Strings themselves).
+     */
+    public long memoryBytes() {
+        long columnBytes = (16 + 4L * userCapacity) * attributeNames.size();
+        long dictionaryBytes = 3 * 4L * (users.size() + attributeNames.size() + values.size());
+        return columnBytes + dictionaryBytes;
+    }
+
+    // ---------------------------------------------------------------------
+
+    private int[] column(int attributeId) {
+        if (attributeId == columns.length) {
+            columns = Arrays.copyOf(columns, attributeId * 2);
+        }
+        if (columns[attributeId] == null) {
+            int[] column = new int[userCapacity];
+            Arrays.fill(column, NONE);
+            columns[attributeId] = column;
+        }
+        return columns[attributeId];
+    }
+
+    private void growUsers(int newCapacity) {
+        for (int a = 0; a < attributeNames.size(); a++) {
+            int[] column = Arrays.copyOf(columns[a], newCapacity);
+            Arrays.fill(column, userCapacity, newCapacity, NONE);
+            columns[a] = column;
+        }
+        userCapacity = newCapacity;
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * BatchLookupBenchmark - measures how much faster BookIndex.getAll() is than calling get() in a loop.
+ * <p>
+ * It fills a BookIndex much bigger than the CPU cache with random codes, and
+ * looks up LOOKUP_COUNT codes in batches, half of which are not in the index:
+ * - with a loop of get() calls, one code at a time
+ * - with one getAll() call per batch
+ * Each way is timed several rounds, and the best round is reported (the first
+ * rounds include JIT compiling), in nanoseconds per code looked up.  Both ways
+ * should find the same number of books; the result reports both counts.
+ * <p>
+ * Usage: BatchLookupBenchmark [books] [batchSize] [rounds]
+ *   defaults: 4,000,000 books, batches of 500 codes, 5 rounds.
+ *   Run with a heap big enough for the index (-Xmx2g for the default).
+ */
+
+import java.util.Locale;
+import java.util.Random;
+
+public class BatchLookupBenchmark {
+
+    public static final int LOOKUP_COUNT = 2_000_000;
+
+    public static void main(String[] args) {
+        int books = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.println(run(books, batchSize, rounds));
+    }
+
+    /**
+     * Builds an index of bookCount random codes, and times both ways of looking codes up in it.
+     */
+    public static Result run(int bookCount, int batchSize, int rounds) {
+        if (bookCount < 1 || batchSize < 1 || batchSize > LOOKUP_COUNT || rounds < 1) {
+            throw new IllegalArgumentException("Bad benchmark settings: books=" + bookCount
+                    + ", batchSize=" + batchSize + ", rounds=" + rounds);
+        }
+        Random random = new Random(42);
+        int[] codes = new int[bookCount];
+        BookIndex bookIndex = new BookIndex(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            codes[i] = random.nextInt();
+            bookIndex.put(codes[i], new Book(codes[i], "Title " + i));
+        }
+        int[][] batches = new int[LOOKUP_COUNT / batchSize][batchSize];
+        for (int[] batch : batches) {
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = random.nextBoolean() ? codes[random.nextInt(bookCount)] : random.nextInt();
+            }
+        }
+
+        Result result = new Result(bookCount, batches.length * batchSize, batchSize);
+        Book[] found = new Book[batchSize];
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            int foundByLoop = 0;
+            for (int[] batch : batches) {
+                for (int i = 0; i < batch.length; i++) {
+                    found[i] = bookIndex.get(batch[i]);
+                    if (found[i] != null) {
+                        foundByLoop++;
+                    }
+                }
+            }
+            result.bestLoopNanos = Math.min(result.bestLoopNanos, System.nanoTime() - start);
+            result.foundByLoop = foundByLoop;
+
+            start = System.nanoTime();
+            int foundByGetAll = 0;
+            for (int[] batch : batches) {
+                foundByGetAll += bookIndex.getAll(batch, found);
+            }
+            result.bestGetAllNanos = Math.min(result.bestGetAllNanos, System.nanoTime() - start);
+            result.foundByGetAll = foundByGetAll;
+        }
+        return result;
+    }
+
+    public static class Result {
+        private final int books;
+        private final int lookups;
+        private final int batchSize;
+        private long bestLoopNanos = Long.MAX_VALUE;
+        private long bestGetAllNanos = Long.MAX_VALUE;
+        private int foundByLoop;
+        private int foundByGetAll;
+
+        Result(int books, int lookups, int batchSize) {
+            this.books = books;
+            this.lookups = lookups;
+            this.batchSize = batchSize;
+        }
+
+        public double loopNanosPerCode() {
+            return (double) bestLoopNanos / lookups;
+        }
+
+        public double getAllNanosPerCode() {
+            return (double) bestGetAllNanos / lookups;
+        }
+
+        /** How many times faster getAll() was than the get() loop. */
+        public double speedup() {
+            return (double) bestLoopNanos / bestGetAllNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "books=" + books + ", lookups=" + lookups + ", batchSize=" + batchSize
+                    + String.format(Locale.ROOT, ", loopNanosPerCode=%.1f, getAllNanosPerCode=%.1f, speedup=%.2f",
+                    loopNanosPerCode(), getAllNanosPerCode(), speedup())
+                    + ", foundByLoop=" + foundByLoop + ", foundByGetAll=" + foundByGetAll;
+        }
+
+        public String toJson() {
+            return "{\"books\":" + books
+                    + ",\"lookups\":" + lookups
+                    + ",\"batchSize\":" + batchSize
+                    + ",\"loopNanosPerCode\":" + String.format(Locale.ROOT, "%.1f", loopNanosPerCode())
+                    + ",\"getAllNanosPerCode\":" + String.format(Locale.ROOT, "%.1f", getAllNanosPerCode())
+                    + ",\"speedup\":" + String.format(Locale.ROOT, "%.2f", speedup())
+                    + ",\"foundByLoop\":" + foundByLoop
+                    + ",\"foundByGetAll\":" + foundByGetAll
+                    + "}";
+        }
+    }
+}
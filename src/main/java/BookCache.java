@@ -0,0 +1,349 @@
+/**
+ * BookCache - keeps a limited number of Books in memory, loading the others when they are needed.
+ * <p>
+ * map3() and map5() hold the whole catalogue in a HashMap.  When the catalogue
+ * is too big for that, we keep only the most used ("hot") books in memory, and
+ * load any other book from slower storage (a file, a database, a
+ * MappedBookCatalogue, ...) using a "loader" function.
+ * <p>
+ * When the cache is full, a book has to be removed ("evicted") to make room.
+ * BookCache uses a "segmented LRU" policy, which keeps popular books better
+ * than plain Least-Recently-Used:
+ * - a newly loaded book goes into the "probation" segment
+ * - if it is used again while on probation, it moves to the "protected" segment
+ *   (80% of the cache)
+ * - when the protected segment is full, its least recently used book moves
+ *   back to probation
+ * - the book that is evicted is always the least recently used one on probation
+ * So a long scan over books that are used only once cannot push out the books
+ * that are used all the time.
+ * <p>
+ * BookCache is thread-safe.  If several threads ask for the same missing book at
+ * the same time, it is loaded once and all of them get the same Book.
+ * Entries can optionally expire a fixed time after they were loaded.
+ * <p>
+ * Example:
+ *   MappedBookCatalogue catalogue = MappedBookCatalogue.open(path);
+ *   BookCache cache = new BookCache(10_000, catalogue::get);
+ *   Book book = cache.get(30004);
+ */
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+public class BookCache {
+
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final int maximumSize;
+    private final int protectedMaximum;
+    private final IntFunction<Book> loader;   // returns null if there is no book with the code
+    private final long expireAfterNanos;      // 0 = never expire
+
+    // Both segments are in access order: the first entry is the least recently used.
+    private final LinkedHashMap<Integer, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // loads in progress, so that concurrent requests for the same code share one load.
+    // put() and invalidate() remove a code's load, so its (possibly out of date) result is not kept.
+    private final ConcurrentHashMap<Integer, CompletableFuture<Book>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public BookCache(int maximumSize, IntFunction<Book> loader) {
+        this(maximumSize, loader, null);
+    }
+
+    /**
+     * @param expireAfterLoad how long a book stays in the cache after it is loaded, or null for no limit
+     */
+    public BookCache(int maximumSize, IntFunction<Book> loader, Duration expireAfterLoad) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be at least 1: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.protectedMaximum = (int) (maximumSize * PROTECTED_SHARE);
+        this.loader = Objects.requireNonNull(loader, "loader");
+        this.expireAfterNanos = expireAfterLoad == null ? 0 : expireAfterLoad.toNanos();
+    }
+
+    /**
+     * Returns the Book with the code, loading it if it is not in the cache.
+     * Returns null if the loader has no book with that code (nulls are not cached).
+     */
+    public Book get(int code) {
+        Book book = getIfPresent(code);
+        if (book != null) {
+            return book;
+        }
+        misses.increment();
+        return load(code);
+    }
+
+    /**
+     * Returns the Book with the code if it is in the cache, otherwise null.  Never loads.
+     */
+    public Book getIfPresent(int code) {
+        lock.lock();
+        try {
+            Entry entry = protectedSegment.get(code);    // get() also moves it to most recently used
+            if (entry == null) {
+                entry = probation.remove(code);
+                if (entry != null) {
+                    if (isExpired(entry)) {
+                        expirations.increment();
+                        return null;
+                    }
+                    promote(code, entry);   // used twice: move from probation to protected
+                }
+            } else if (isExpired(entry)) {
+                protectedSegment.remove(code);
+                expirations.increment();
+                return null;
+            }
+            if (entry != null) {
+                hits.increment();
+                return entry.book;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the book is in the cache.  Does not load the book, and does not
+     * move it between segments, but does make it the most recently used in its segment.
+     */
+    public boolean containsKey(int code) {
+        lock.lock();
+        try {
+            Entry entry = protectedSegment.containsKey(code) ? protectedSegment.get(code) : probation.get(code);
+            return entry != null && !isExpired(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a book to the cache (e.g. after the book has been changed in storage).
+     * A load of the same code that is still running will not replace it.
+     */
+    public void put(Book book) {
+        lock.lock();
+        try {
+            loading.remove(book.getCode());
+            store(book);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a book from the cache, so the next get() loads it again.
+     */
+    public void invalidate(int code) {
+        lock.lock();
+        try {
+            loading.remove(code);
+            if (protectedSegment.remove(code) == null) {
+                probation.remove(code);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            loading.clear();
+            probation.clear();
+            protectedSegment.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return probation.size() + protectedSegment.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A read-only Map<Integer, Book> view.  get() loads missing books, like
+     * BookCache.get(); size(), entrySet() etc. only show the books in the cache.
+     */
+    public Map<Integer, Book> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public Book get(Object key) {
+                return key instanceof Integer ? BookCache.this.get((Integer) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Integer && BookCache.this.containsKey((Integer) key);
+            }
+
+            @Override
+            public Set<Map.Entry<Integer, Book>> entrySet() {
+                Map<Integer, Book> copy = new HashMap<>();
+                lock.lock();
+                try {
+                    probation.forEach((code, entry) -> copy.put(code, entry.book));
+                    protectedSegment.forEach((code, entry) -> copy.put(code, entry.book));
+                } finally {
+                    lock.unlock();
+                }
+                return Collections.unmodifiableMap(copy).entrySet();
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------
+    // statistics
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public String stats() {
+        return "BookCache{size=" + size() + "/" + maximumSize
+                + ", hits=" + hits.sum()
+                + ", misses=" + misses.sum()
+                + ", hitRate=" + String.format(Locale.ROOT, "%.3f", hitRate())
+                + ", loadFailures=" + loadFailures.sum()
+                + ", evictions=" + evictions.sum()
+                + ", expirations=" + expirations.sum()
+                + '}';
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * Loads a book, sharing the load with any other thread loading the same code.
+     * The loader is called without holding the cache lock, so slow loads do not
+     * block hits on other books.  If put() or invalidate() is called for the code
+     * while it is loading, the loaded book may already be out of date: it is
+     * still returned to the threads that asked for it, but not kept in the cache.
+     */
+    private Book load(int code) {
+        CompletableFuture<Book> mine = new CompletableFuture<>();
+        CompletableFuture<Book> inProgress = loading.putIfAbsent(code, mine);
+        if (inProgress != null) {
+            try {
+                return inProgress.join();   // another thread is loading it: wait for its result
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        Book book;
+        try {
+            book = loader.apply(code);
+        } catch (RuntimeException | Error e) {
+            loadFailures.increment();
+            loading.remove(code, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        lock.lock();
+        try {
+            if (loading.remove(code, mine) && book != null) {   // false if put() or invalidate() came first
+                store(book);
+            }
+        } finally {
+            lock.unlock();
+        }
+        mine.complete(book);
+        return book;
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return e;
+    }
+
+    /** Adds or replaces the book's entry.  Call with the lock held. */
+    private void store(Book book) {
+        int code = book.getCode();
+        Entry entry = new Entry(book, System.nanoTime());
+        if (protectedSegment.containsKey(code)) {
+            protectedSegment.put(code, entry);
+        } else {
+            probation.put(code, entry);
+            evictIfNeeded();
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return expireAfterNanos > 0 && System.nanoTime() - entry.loadedAt > expireAfterNanos;
+    }
+
+    private void promote(int code, Entry entry) {
+        protectedSegment.put(code, entry);
+        if (protectedSegment.size() > protectedMaximum) {
+            // move the least recently used protected book back to probation
+            Iterator<Map.Entry<Integer, Entry>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<Integer, Entry> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+        evictIfNeeded();
+    }
+
+    private void evictIfNeeded() {
+        while (probation.size() + protectedSegment.size() > maximumSize) {
+            Iterator<Map.Entry<Integer, Entry>> eldest =
+                    (probation.isEmpty() ? protectedSegment : probation).entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static final class Entry {
+        final Book book;
+        final long loadedAt;
+
+        Entry(Book book, long loadedAt) {
+            this.book = book;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * BookFilters - select Books from a Map<Integer, Book> using a condition (a Predicate).
+ * <p>
+ * The filter visits each Book once through values(), instead of getting the
+ * keySet() and then calling get(key) for every key (which does every hash
+ * lookup twice).
+ * <p>
+ * For large maps the work is split across all CPU cores using a parallel
+ * stream (which runs on the common ForkJoin pool).  For small maps the cost
+ * of splitting is higher than the cost of the scan, so maps with fewer
+ * entries than the "parallel threshold" are filtered on the calling thread.
+ * <p>
+ * The Books are returned in the same order as bookMap.values() would give them,
+ * whether or not the filter ran in parallel.
+ * <p>
+ * Example:
+ *   List<Book> books = BookFilters.filter(bookMap,
+ *           BookFilters.titleStartsWith("Wh").and(BookFilters.codeBetween(50000, 59999)));
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BookFilters {
+
+    /**
+     * Maps with at least this many entries are filtered in parallel by default.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100_000;
+
+    private BookFilters() {
+    }
+
+    /**
+     * Returns all Books in bookMap that match the condition.
+     */
+    public static List<Book> filter(Map<Integer, Book> bookMap, Predicate<? super Book> condition) {
+        return filter(bookMap, condition, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Returns all Books in bookMap that match the condition, filtering in
+     * parallel if the map has at least parallelThreshold entries.
+     * The condition may be called from several threads at once, so it must
+     * not change any shared state.
+     */
+    public static List<Book> filter(Map<Integer, Book> bookMap, Predicate<? super Book> condition,
+                                    int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("parallelThreshold must be at least 1: " + parallelThreshold);
+        }
+        Stream<Book> books = bookMap.size() >= parallelThreshold
+                ? bookMap.values().parallelStream()
+                : bookMap.values().stream();
+        return books.filter(condition).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of Books in bookMap that match the condition.
+     */
+    public static long count(Map<Integer, Book> bookMap, Predicate<? super Book> condition,
+                             int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("parallelThreshold must be at least 1: " + parallelThreshold);
+        }
+        Stream<Book> books = bookMap.size() >= parallelThreshold
+                ? bookMap.values().parallelStream()
+                : bookMap.values().stream();
+        return books.filter(condition).count();
+    }
+
+    // Commonly used conditions. Combine them with and(), or() and negate().
+
+    public static Predicate<Book> titleNoLongerThan(int maxLengthOfTitle) {
+        return book -> book.getTitle().length() <= maxLengthOfTitle;
+    }
+
+    public static Predicate<Book> codeBetween(int lowestCode, int highestCode) {
+        return book -> book.getCode() >= lowestCode && book.getCode() <= highestCode;
+    }
+
+    public static Predicate<Book> titleStartsWith(String prefix) {
+        return book -> book.getTitle().startsWith(prefix);
+    }
+}
@@ -0,0 +1,488 @@
+/**
+ * BookIndex - a Map from a primitive int book code to a Book object.
+ * <p>
+ * A HashMap<Integer, Book> stores every key as an Integer object and every
+ * entry as a HashMap.Node object, so each Book costs two extra objects.
+ * For millions of books, that overhead uses most of the heap.
+ * <p>
+ * BookIndex uses "open addressing" instead: the keys are stored in an int[]
+ * and the values in a parallel Book[] at the same index.  If a slot is
+ * already taken, we try the next slot (linear probing) until we find the key
+ * or an empty slot.  No Integer or Node objects are ever created.
+ * <p>
+ * An empty slot is marked by a null value, so null values are not allowed.
+ * The table size is always a power of two, and the table is doubled when it
+ * becomes more than 3/4 full.
+ * <p>
+ * get(), put() and remove() are O(1) on average, like HashMap.
+ * Use asMap() to pass a BookIndex to code that expects a Map<Integer, Book>.
+ */
+
+import java.util.*;
+
+public class BookIndex {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int BATCH = 32;                     // codes looked up together by getAll()
+    private static final int SORTED_PUT_THRESHOLD = 1024;    // putAll() batches this big are sorted by slot
+
+    private int[] keys;     // book codes
+    private Book[] values;  // values[i] is the Book for keys[i], null if slot i is empty
+    private int size;
+    private int mask;       // table length - 1, used instead of % to find a slot
+    private int threshold;  // resize when size goes above this
+    private int modCount;   // counts adds and removes, so iterators can detect them
+
+    public BookIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an index that can hold expectedSize books without resizing.
+     */
+    public BookIndex(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+        }
+        allocate(tableSizeFor((int) Math.ceil(expectedSize / LOAD_FACTOR)));
+    }
+
+    /**
+     * Copies all entries of an existing Map into a new BookIndex.
+     */
+    public static BookIndex from(Map<Integer, Book> bookMap) {
+        BookIndex index = new BookIndex(bookMap.size());
+        for (Map.Entry<Integer, Book> entry : bookMap.entrySet()) {
+            index.put(entry.getKey(), entry.getValue());
+        }
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the Book for the code, or null if the code is not in the index.
+     */
+    public Book get(int code) {
+        int slot = findSlot(code);
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    public boolean containsKey(int code) {
+        return findSlot(code) >= 0;
+    }
+
+    /**
+     * Adds or replaces the entry for code.
+     * Returns the previous Book for the code, or null if there was none.
+     */
+    public Book put(int code, Book book) {
+        Objects.requireNonNull(book, "book");
+        int slot = hash(code) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == code) {
+                Book previous = values[slot];
+                values[slot] = book;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = code;
+        values[slot] = book;
+        modCount++;
+        if (++size > threshold) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a whole batch of codes: out[i] is set to the Book for codes[i], or null.
+     * Returns how many of the codes were found.
+     * <p>
+     * When the index is much bigger than the CPU cache, each get() has to wait
+     * for its slot to be fetched from main memory.  getAll() works on
+     * BATCH codes at a time: it first works out all their slots and reads the
+     * key and value of each, with no if statements in between, so the CPU
+     * fetches those BATCH slots from memory at the same time.  Only then does
+     * it check each code (its slot is usually already in the cache).
+     * In a get() loop, every wrongly guessed "found or not" branch throws away
+     * the memory reads the CPU had started for the next codes, so getAll()
+     * gains most when many codes are missing (see BatchLookupBenchmark).
+     */
+    public int getAll(int[] codes, Book[] out) {
+        if (out.length < codes.length) {
+            throw new IllegalArgumentException("out is shorter than codes: " + out.length + " < " + codes.length);
+        }
+        int[] tableKeys = keys;
+        Book[] tableValues = values;
+        int tableMask = mask;
+        int[] slots = new int[BATCH];
+        int found = 0;
+        for (int start = 0; start < codes.length; start += BATCH) {
+            int n = Math.min(BATCH, codes.length - start);
+            // pass 1: independent reads, which the CPU can overlap
+            int hits = 0;     // bit k is set if codes[start + k] is in its home slot
+            for (int k = 0; k < n; k++) {
+                int code = codes[start + k];
+                int slot = hash(code) & tableMask;
+                slots[k] = slot;
+                hits |= (tableKeys[slot] == code & tableValues[slot] != null ? 1 : 0) << k;
+            }
+            // pass 2: resolve each code, starting at its (now cached) slot
+            for (int k = 0; k < n; k++) {
+                int code = codes[start + k];
+                int slot = slots[k];
+                Book book = null;
+                if ((hits & (1 << k)) != 0) {
+                    book = tableValues[slot];
+                } else {
+                    while (tableValues[slot] != null) {
+                        if (tableKeys[slot] == code) {
+                            book = tableValues[slot];
+                            break;
+                        }
+                        slot = (slot + 1) & tableMask;
+                    }
+                }
+                out[start + k] = book;
+                if (book != null) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds or replaces a whole batch of entries: books[i] is stored under codes[i]
+     * (if a code appears more than once, the last one wins).
+     * <p>
+     * The table is grown once, up front, to fit the whole batch.  Large batches
+     * are then inserted in slot order rather than in the order given, so the
+     * table is filled from start to end instead of at random places.
+     */
+    public void putAll(int[] codes, Book[] books) {
+        if (books.length < codes.length) {
+            throw new IllegalArgumentException("books is shorter than codes: " + books.length + " < " + codes.length);
+        }
+        for (int i = 0; i < codes.length; i++) {
+            Objects.requireNonNull(books[i], "book");
+        }
+        ensureCapacity(size + codes.length);
+        if (codes.length < SORTED_PUT_THRESHOLD) {
+            for (int i = 0; i < codes.length; i++) {
+                put(codes[i], books[i]);
+            }
+            return;
+        }
+        // sort by (slot, position in the batch): the position keeps "last one wins" for repeated codes
+        long[] order = new long[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            order[i] = (long) (hash(codes[i]) & mask) << 32 | i;
+        }
+        Arrays.sort(order);
+        for (long entry : order) {
+            int i = (int) entry;
+            put(codes[i], books[i]);
+        }
+    }
+
+    /**
+     * Grows the table (if needed) so that it can hold expectedSize books without resizing.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(expectedSize / LOAD_FACTOR)));
+        if (capacity > values.length) {
+            resize(capacity);
+        }
+    }
+
+    /**
+     * Removes the entry for code.
+     * Returns the removed Book, or null if the code was not in the index.
+     */
+    public Book remove(int code) {
+        int slot = findSlot(code);
+        if (slot < 0) {
+            return null;
+        }
+        Book removed = values[slot];
+        deleteSlot(slot);
+        size--;
+        modCount++;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Calls action once for each entry, passing the code as a primitive int.
+     * The order is not defined (same as HashMap).
+     */
+    public void forEach(IntObjConsumer<? super Book> action) {
+        Book[] vals = values;
+        for (int i = 0; i < vals.length; i++) {
+            if (vals[i] != null) {
+                action.accept(keys[i], vals[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns all codes in the index (no order).
+     */
+    public int[] codes() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                result[n++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a live Map<Integer, Book> view of this index, so a BookIndex can be
+     * used wherever a Map<Integer, Book> is expected (e.g. getShortTitledBooks()).
+     * Note that the view has to box keys, so use the int methods on hot paths.
+     */
+    public Map<Integer, Book> asMap() {
+        return new MapView();
+    }
+
+    /**
+     * Approximate heap usage of the index in bytes, compared with the
+     * estimated cost of a HashMap<Integer, Book> holding the same entries.
+     * Book objects themselves are counted in neither figure.
+     * Assumes a 64-bit JVM with compressed references (4 byte references, 16 byte array headers).
+     */
+    public String memoryReport() {
+        long arrayHeader = 16;
+        long indexBytes = 32                               // BookIndex object
+                + arrayHeader + 4L * keys.length           // int[] keys
+                + arrayHeader + 4L * values.length;        // Book[] values
+
+        long hashMapTable = tableSizeFor((int) Math.ceil(Math.max(size, 1) / LOAD_FACTOR));
+        long hashMapBytes = 48                             // HashMap object
+                + arrayHeader + 4L * hashMapTable          // Node[] table
+                + 32L * size                               // one HashMap.Node per entry
+                + 16L * size;                              // one Integer per key
+
+        return "BookIndex{size=" + size
+                + ", capacity=" + values.length
+                + ", load=" + String.format("%.2f", (double) size / values.length)
+                + ", indexBytes=" + indexBytes
+                + ", bytesPerEntry=" + (size == 0 ? 0 : indexBytes / size)
+                + ", equivalentHashMapBytes=" + hashMapBytes
+                + '}';
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((code, book) -> {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(code).append('=').append(book);
+        });
+        return sb.append('}').toString();
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * Book codes are often sequential, so we mix the bits before masking,
+     * otherwise neighbouring codes fill neighbouring slots and probes get long.
+     */
+    private static int hash(int code) {
+        return HashMixers.fibonacci(code);
+    }
+
+    private int findSlot(int code) {
+        int slot = hash(code) & mask;
+        while (values[slot] != null) {
+            if (keys[slot] == code) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, then moves later entries of the same probe run back
+     * so that no entry is left unreachable behind the new gap.
+     * (This avoids "tombstone" markers, which slow down later lookups.)
+     */
+    private void deleteSlot(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (values[slot] == null) {
+                break;
+            }
+            int home = hash(keys[slot]) & mask;
+            // move the entry back if its home slot is not between the gap and its current slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Book[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldKeys = keys;
+        Book[] oldValues = values;
+        allocate(newCapacity);
+        modCount++;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < n && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Map<Integer, Book> adapter over the index.
+     */
+    private class MapView extends AbstractMap<Integer, Book> {
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Book get(Object key) {
+            return key instanceof Integer ? BookIndex.this.get((Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof Integer && BookIndex.this.containsKey((Integer) key);
+        }
+
+        @Override
+        public Book put(Integer key, Book value) {
+            return BookIndex.this.put(key, value);
+        }
+
+        @Override
+        public Book remove(Object key) {
+            return key instanceof Integer ? BookIndex.this.remove((Integer) key) : null;
+        }
+
+        @Override
+        public void clear() {
+            BookIndex.this.clear();
+        }
+
+        @Override
+        public Set<Entry<Integer, Book>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<Integer, Book>> iterator() {
+                    return new EntryIterator();
+                }
+            };
+        }
+    }
+
+    /**
+     * Walks the slots in order, starting just after an empty slot.
+     * remove() moves later entries of the same probe run back into the gap, but
+     * never past an empty slot, so no entry moves from a slot not visited yet to
+     * one already visited: after remove() the iterator just looks at the same slot again.
+     * Any other change to the index makes the iterator throw ConcurrentModificationException.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<Integer, Book>> {
+        private final int start;            // the slot after an empty one
+        private int position;               // slots passed so far, counted from start
+        private int lastSlot = -1;          // slot of the entry returned by next(), -1 after remove()
+        private int expectedModCount = modCount;
+
+        EntryIterator() {
+            int empty = 0;
+            while (values[empty] != null) {   // the table is never full
+                empty++;
+            }
+            start = empty + 1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position < values.length && values[(start + position) & mask] == null) {
+                position++;
+            }
+            return position < values.length;
+        }
+
+        @Override
+        public Map.Entry<Integer, Book> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastSlot = (start + position++) & mask;
+            return new AbstractMap.SimpleImmutableEntry<>(keys[lastSlot], values[lastSlot]);
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            deleteSlot(lastSlot);
+            size--;
+            expectedModCount = ++modCount;
+            position--;   // deleteSlot() may have moved the next entry into lastSlot
+            lastSlot = -1;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * BookLookupClient - talks to a BookLookupServer over one socket connection.
+ * <p>
+ * Each method sends one request and waits for its answer, except getBooks()
+ * and putBooks(), which send their requests in windows of MAX_IN_FLIGHT: all
+ * the requests of a window are sent before any of its answers are read
+ * ("pipelining").  A batch of 100 gets then costs about one network round trip
+ * instead of 100.
+ * <p>
+ * The answers of a window are read before the next window is sent.  If a
+ * client sent a million requests without reading, the server would stop
+ * reading too once its answers filled the socket buffers (it waits for the
+ * client to take them), and both sides would wait for each other forever.
+ * MAX_IN_FLIGHT answers of a few hundred bytes fit in the buffers.
+ * <p>
+ * A client is not thread-safe: give each thread its own client (connections are cheap).
+ * <p>
+ * Example:
+ *   try (BookLookupClient client = new BookLookupClient(port)) {
+ *       client.putBook(new Book(30004, "Lazy Days"));
+ *       Book book = client.getBook(30004);
+ *       Book[] books = client.getBooks(new int[] {30004, 40023, 55523});
+ *   }
+ */
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BookLookupClient implements AutoCloseable {
+
+    public static final int MAX_IN_FLIGHT = 256;   // requests sent before reading their answers
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to a server on this machine.
+     */
+    public BookLookupClient(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress().getHostAddress(), port);
+    }
+
+    public BookLookupClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BookLookupServer.BUFFER_SIZE));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BookLookupServer.BUFFER_SIZE));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // book catalogue: code => Book
+
+    public Book getBook(int code) throws IOException {
+        writeBookRequest(BookLookupServer.GET, code);
+        out.flush();
+        return readBook();
+    }
+
+    /**
+     * Adds or replaces the book with book.getCode(), and returns the book it replaced (or null).
+     */
+    public Book putBook(Book book) throws IOException {
+        writePutBook(book);
+        out.flush();
+        return readBook();
+    }
+
+    public boolean containsBook(int code) throws IOException {
+        writeBookRequest(BookLookupServer.CONTAINS_KEY, code);
+        out.flush();
+        return readFound();
+    }
+
+    public Book removeBook(int code) throws IOException {
+        writeBookRequest(BookLookupServer.REMOVE, code);
+        out.flush();
+        return readBook();
+    }
+
+    /**
+     * Gets many books with one round trip per MAX_IN_FLIGHT books.  books[i] is the book with codes[i], or null.
+     */
+    public Book[] getBooks(int[] codes) throws IOException {
+        Book[] books = new Book[codes.length];
+        for (int start = 0; start < codes.length; start += MAX_IN_FLIGHT) {
+            int end = Math.min(codes.length, start + MAX_IN_FLIGHT);
+            for (int i = start; i < end; i++) {
+                writeBookRequest(BookLookupServer.GET, codes[i]);
+            }
+            out.flush();
+            for (int i = start; i < end; i++) {
+                books[i] = readBook();
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Adds or replaces many books with one round trip per MAX_IN_FLIGHT books.
+     */
+    public void putBooks(Book[] books) throws IOException {
+        for (int start = 0; start < books.length; start += MAX_IN_FLIGHT) {
+            int end = Math.min(books.length, start + MAX_IN_FLIGHT);
+            for (int i = start; i < end; i++) {
+                writePutBook(books[i]);
+            }
+            out.flush();
+            for (int i = start; i < end; i++) {
+                readBook();
+            }
+        }
+    }
+
+    /**
+     * Returns all books on the server whose title is at most maxTitleLength characters long.
+     */
+    public List<Book> scanShortTitledBooks(int maxTitleLength) throws IOException {
+        writeBookRequest(BookLookupServer.SCAN, maxTitleLength);
+        out.flush();
+        return readBooks();
+    }
+
+    /**
+     * Number of books on the server.
+     */
+    public int bookCount() throws IOException {
+        writeBookRequest(BookLookupServer.SIZE, 0);
+        out.flush();
+        readFound();
+        return in.readInt();
+    }
+
+    /**
+     * Starts a scan of all books on the server, and returns the first pageSize of them.
+     * nextScanPage() returns the following pages.  The scan belongs to this
+     * connection, and other requests (e.g. removeBook()) can be sent between pages.
+     */
+    public List<Book> startScan(int pageSize) throws IOException {
+        writeBookRequest(BookLookupServer.SCAN_FIRST, pageSize);
+        out.flush();
+        return readBooks();
+    }
+
+    /**
+     * The next page of the scan started by startScan(), or an empty list when it is finished.
+     */
+    public List<Book> nextScanPage(int pageSize) throws IOException {
+        writeBookRequest(BookLookupServer.SCAN_NEXT, pageSize);
+        out.flush();
+        return readBooks();
+    }
+
+    // ---------------------------------------------------------------------
+    // favourite books: Student => Book
+
+    public Book getFavourite(StudentKey student) throws IOException {
+        writeFavouriteRequest(BookLookupServer.GET, student);
+        out.flush();
+        return readBook();
+    }
+
+    public Book putFavourite(StudentKey student, Book book) throws IOException {
+        writeFavouriteRequest(BookLookupServer.PUT, student);
+        writeBook(book);
+        out.flush();
+        return readBook();
+    }
+
+    public boolean containsFavourite(StudentKey student) throws IOException {
+        writeFavouriteRequest(BookLookupServer.CONTAINS_KEY, student);
+        out.flush();
+        return readFound();
+    }
+
+    public Book removeFavourite(StudentKey student) throws IOException {
+        writeFavouriteRequest(BookLookupServer.REMOVE, student);
+        out.flush();
+        return readBook();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void writeBookRequest(byte operation, int code) throws IOException {
+        out.writeByte(operation);
+        out.writeByte(BookLookupServer.BOOKS);
+        out.writeInt(code);
+    }
+
+    private void writePutBook(Book book) throws IOException {
+        writeBookRequest(BookLookupServer.PUT, book.getCode());
+        writeBook(book);
+    }
+
+    private void writeFavouriteRequest(byte operation, StudentKey student) throws IOException {
+        out.writeByte(operation);
+        out.writeByte(BookLookupServer.FAVOURITES);
+        out.writeInt(student.getId());
+        out.writeUTF(student.getName());
+    }
+
+    private void writeBook(Book book) throws IOException {
+        out.writeInt(book.getCode());
+        out.writeUTF(book.getTitle());
+    }
+
+    private Book readBook() throws IOException {
+        return readFound() ? BookLookupServer.readBook(in) : null;
+    }
+
+    private List<Book> readBooks() throws IOException {
+        if (!readFound()) {
+            return new ArrayList<>();
+        }
+        int count = in.readInt();
+        List<Book> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(BookLookupServer.readBook(in));
+        }
+        return books;
+    }
+
+    private boolean readFound() throws IOException {
+        byte status = in.readByte();
+        if (status == BookLookupServer.ERROR) {
+            throw new IOException("Server error: " + in.readUTF());
+        }
+        return status == BookLookupServer.FOUND;
+    }
+}
@@ -0,0 +1,314 @@
+/**
+ * BookLookupServer - lets other programs use the book maps over a local socket.
+ * <p>
+ * The server holds two maps:
+ * - the book catalogue, code => Book (like map3())
+ * - the favourite books, Student => Book (a FavouriteBookRegistry, like map7())
+ * and answers get, put, containsKey and remove requests for them, "scan"
+ * requests for all books with short titles (like getShortTitledBooks()), and
+ * size and paged scan requests for the whole catalogue.  Use
+ * BookLookupClient to talk to it, and LookupLoadGenerator to measure it.
+ * Run main() to start a server in its own JVM (see ShardProcess).
+ * <p>
+ * Each connection is served by its own virtual thread.  A virtual thread that
+ * waits for the network does not tie up an operating system thread, so the
+ * server can have thousands of connections open at once.
+ * <p>
+ * Requests can be "pipelined": a client can send many requests without
+ * waiting for the answers.  The server answers them in order, and only sends
+ * (flushes) its answers when it has no more requests waiting to be read, so a
+ * batch of requests gets its answers back in a few network packets.
+ * <p>
+ * Protocol (DataOutputStream format, big-endian, strings as writeUTF):
+ *   request:  [byte operation][byte map][key][book, for PUT only]
+ *             key is [int code] for BOOKS, [int id][String name] for FAVOURITES
+ *             book is [int code][String title]
+ *             SCAN (BOOKS only) sends [int maxTitleLength] as the key
+ *             SIZE (BOOKS only) sends [int 0] as the key
+ *             SCAN_FIRST and SCAN_NEXT (BOOKS only) send [int pageSize] as the key:
+ *             SCAN_FIRST starts a scan of all books on this connection and returns
+ *             its first page, SCAN_NEXT returns the next page (empty at the end).
+ *             Other requests can be sent between pages.
+ *   response: [byte NOT_FOUND]            - no book (or containsKey is false)
+ *             [byte FOUND][book]          - get, or the book that put/remove replaced
+ *             [byte FOUND]                - containsKey is true
+ *             [byte FOUND][int count][book]... - scan, or one page of a paged scan
+ *             [byte FOUND][int size]      - size
+ *             [byte ERROR][String message] - the connection is then closed
+ * <p>
+ * Example:
+ *   try (BookLookupServer server = new BookLookupServer(books, registry).start(0)) {
+ *       try (BookLookupClient client = new BookLookupClient(server.port())) {
+ *           Book book = client.getBook(30004);
+ *       }
+ *   }
+ */
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BookLookupServer implements AutoCloseable {
+
+    // operations
+    static final byte GET = 1;
+    static final byte PUT = 2;
+    static final byte CONTAINS_KEY = 3;
+    static final byte REMOVE = 4;
+    static final byte SCAN = 5;
+    static final byte SIZE = 6;
+    static final byte SCAN_FIRST = 7;
+    static final byte SCAN_NEXT = 8;
+
+    // maps
+    static final byte BOOKS = 1;
+    static final byte FAVOURITES = 2;
+
+    // response status
+    static final byte NOT_FOUND = 0;
+    static final byte FOUND = 1;
+    static final byte ERROR = 2;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BACKLOG = 4096;   // connections waiting to be accepted
+    static final String READY_MESSAGE = "BookLookupServer listening on port ";
+
+    private final ConcurrentMap<Integer, Book> books;
+    private final FavouriteBookRegistry favourites;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder connectionCount = new LongAdder();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    public BookLookupServer() {
+        this(new ConcurrentHashMap<>(), new FavouriteBookRegistry());
+    }
+
+    /**
+     * @param books      the catalogue, code => Book; it must be thread-safe, as many
+     *                   connections use it at the same time
+     * @param favourites the Student => Book registry
+     */
+    public BookLookupServer(ConcurrentMap<Integer, Book> books, FavouriteBookRegistry favourites) {
+        this.books = books;
+        this.favourites = favourites;
+    }
+
+    /**
+     * Runs a server with an empty catalogue until its standard input is closed
+     * (so it stops when the process that started it stops).
+     * Usage: BookLookupServer [port]   (default 0 = any free port)
+     * Prints "BookLookupServer listening on port N" once it is ready.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        try (BookLookupServer server = new BookLookupServer().start(port)) {
+            System.out.println(READY_MESSAGE + server.port());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // wait for end of input
+            }
+        }
+    }
+
+    /**
+     * Starts listening on the loopback address (port 0 = any free port) and returns this server.
+     */
+    public synchronized BookLookupServer start(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        acceptThread = Thread.ofVirtual().name("book-lookup-accept").start(this::acceptConnections);
+        return this;
+    }
+
+    /**
+     * The port the server is listening on.
+     */
+    public int port() {
+        if (serverSocket == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    public Map<Integer, Book> books() {
+        return books;
+    }
+
+    public FavouriteBookRegistry favourites() {
+        return favourites;
+    }
+
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    public long connectionCount() {
+        return connectionCount.sum();
+    }
+
+    public int openConnections() {
+        return connections.size();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (serverSocket == null) {
+            return;
+        }
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        try {
+            acceptThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);   // answers are flushed in batches already
+                connections.add(socket);
+                connectionCount.increment();
+                Thread.ofVirtual().name("book-lookup-connection").start(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("BookLookupServer: accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            Session session = new Session();
+            int operation;
+            while ((operation = in.read()) >= 0) {
+                try {
+                    handle((byte) operation, in, out, session);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    // a bad request: the rest of the input cannot be trusted, so give up on this connection
+                    out.writeByte(ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                    out.flush();
+                    return;
+                }
+                requests.increment();
+                if (in.available() == 0) {
+                    out.flush();     // no more pipelined requests waiting: send the answers
+                }
+            }
+            out.flush();
+        } catch (EOFException | SocketException e) {
+            // the client went away (or the server is closing)
+        } catch (IOException e) {
+            System.err.println("BookLookupServer: connection failed: " + e.getMessage());
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    private void handle(byte operation, DataInputStream in, DataOutputStream out, Session session) throws IOException {
+        byte map = in.readByte();
+        if (map == BOOKS) {
+            int code = in.readInt();
+            switch (operation) {
+                case GET -> writeBook(out, books.get(code));
+                case PUT -> writeBook(out, books.put(code, readBook(in)));
+                case CONTAINS_KEY -> out.writeByte(books.containsKey(code) ? FOUND : NOT_FOUND);
+                case REMOVE -> writeBook(out, books.remove(code));
+                case SCAN -> writeBooks(out, BookFilters.filter(books, BookFilters.titleNoLongerThan(code)));
+                case SIZE -> {
+                    out.writeByte(FOUND);
+                    out.writeInt(books.size());
+                }
+                case SCAN_FIRST -> {
+                    session.scan = books.values().iterator();
+                    writeBooks(out, session.nextPage(code));
+                }
+                case SCAN_NEXT -> writeBooks(out, session.nextPage(code));
+                default -> throw new IllegalArgumentException("Unknown operation " + operation);
+            }
+        } else if (map == FAVOURITES) {
+            StudentKey student = new StudentKey(in.readInt(), in.readUTF());
+            switch (operation) {
+                case GET -> writeBook(out, favourites.get(student));
+                case PUT -> writeBook(out, favourites.put(student, readBook(in)));
+                case CONTAINS_KEY -> out.writeByte(favourites.containsKey(student) ? FOUND : NOT_FOUND);
+                case REMOVE -> writeBook(out, favourites.remove(student));
+                default -> throw new IllegalArgumentException("Unknown operation " + operation);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown map " + map);
+        }
+    }
+
+    private static void writeBooks(DataOutputStream out, List<Book> found) throws IOException {
+        out.writeByte(FOUND);
+        out.writeInt(found.size());
+        for (Book book : found) {
+            out.writeInt(book.getCode());
+            out.writeUTF(book.getTitle());
+        }
+    }
+
+    /**
+     * What the server remembers about one connection between its requests.
+     */
+    private static final class Session {
+        Iterator<Book> scan;   // the scan started by the last SCAN_FIRST, or null
+
+        List<Book> nextPage(int pageSize) {
+            if (scan == null) {
+                throw new IllegalArgumentException("SCAN_NEXT without SCAN_FIRST");
+            }
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be at least 1: " + pageSize);
+            }
+            List<Book> page = new ArrayList<>(Math.min(pageSize, 1024));
+            while (page.size() < pageSize && scan.hasNext()) {
+                page.add(scan.next());
+            }
+            return page;
+        }
+    }
+
+    static Book readBook(DataInputStream in) throws IOException {
+        int code = in.readInt();
+        return new Book(code, in.readUTF());
+    }
+
+    static void writeBook(DataOutputStream out, Book book) throws IOException {
+        if (book == null) {
+            out.writeByte(NOT_FOUND);
+        } else {
+            out.writeByte(FOUND);
+            out.writeInt(book.getCode());
+            out.writeUTF(book.getTitle());
+        }
+    }
+}
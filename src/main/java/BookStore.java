@@ -0,0 +1,282 @@
+/**
+ * BookStore - a "columnar" (struct-of-arrays) store of Books.
+ * <p>
+ * A List or Map of Book objects needs three objects per book (the Book, its
+ * String title, and the String's byte[]), and a scan over the titles has to
+ * follow a reference to each of them.
+ * <p>
+ * BookStore keeps each field of a Book in its own array instead:
+ * - codes[i]         the code of book i
+ * - titleLengths[i]  the title length of book i (in chars, same as String.length())
+ * - titleOffsets[i]  where the UTF-8 bytes of the title start in the title arena
+ * The title bytes themselves are stored "off-heap" in a MemorySegment (Java 22
+ * Foreign Function & Memory API), so the garbage collector never has to visit them.
+ * <p>
+ * Book objects are only created when asked for, by get(i), and these are
+ * lightweight views that decode the title from the arena on first use.
+ * Scans such as getShortTitledBooks() only read the int[] columns and do not
+ * create any Strings.
+ * <p>
+ * A BookStore holds native memory, so it must be closed when no longer needed
+ * (use try-with-resources).  Book views must not be used after close().
+ */
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class BookStore implements AutoCloseable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long DEFAULT_ARENA_BYTES = 1024;
+
+    private int[] codes;
+    private int[] titleLengths;
+    private long[] titleOffsets;
+    private int[] titleByteLengths;
+    private int size;
+
+    private Arena arena;          // owns the off-heap memory
+    private MemorySegment titles; // UTF-8 bytes of all titles, one after the other
+    private long titlesUsed;      // number of bytes used in titles
+
+    public BookStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BookStore(int expectedBooks) {
+        if (expectedBooks < 0) {
+            throw new IllegalArgumentException("expectedBooks must not be negative: " + expectedBooks);
+        }
+        int capacity = Math.max(expectedBooks, DEFAULT_CAPACITY);
+        codes = new int[capacity];
+        titleLengths = new int[capacity];
+        titleOffsets = new long[capacity];
+        titleByteLengths = new int[capacity];
+        arena = Arena.ofShared();  // shared, so views can be read from any thread
+        titles = arena.allocate(Math.max(DEFAULT_ARENA_BYTES, 16L * capacity));
+    }
+
+    /**
+     * Copies all the Books of a Map into a new BookStore.
+     */
+    public static BookStore from(Map<Integer, Book> bookMap) {
+        BookStore store = new BookStore(bookMap.size());
+        for (Book book : bookMap.values()) {
+            store.add(book.getCode(), book.getTitle());
+        }
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Appends a book and returns its index in the store.
+     */
+    public int add(int code, String title) {
+        checkOpen();
+        Objects.requireNonNull(title, "title");
+        byte[] utf8 = title.getBytes(StandardCharsets.UTF_8);
+
+        if (size == codes.length) {
+            growColumns();
+        }
+        ensureArenaCapacity(titlesUsed + utf8.length);
+
+        MemorySegment.copy(utf8, 0, titles, ValueLayout.JAVA_BYTE, titlesUsed, utf8.length);
+
+        int i = size++;
+        codes[i] = code;
+        titleLengths[i] = title.length();
+        titleOffsets[i] = titlesUsed;
+        titleByteLengths[i] = utf8.length;
+        titlesUsed += utf8.length;
+        return i;
+    }
+
+    public int getCode(int index) {
+        Objects.checkIndex(index, size);
+        return codes[index];
+    }
+
+    public int getTitleLength(int index) {
+        Objects.checkIndex(index, size);
+        return titleLengths[index];
+    }
+
+    /**
+     * Decodes the title of book i into a new String.
+     */
+    public String getTitle(int index) {
+        Objects.checkIndex(index, size);
+        checkOpen();
+        byte[] utf8 = new byte[titleByteLengths[index]];
+        MemorySegment.copy(titles, ValueLayout.JAVA_BYTE, titleOffsets[index], utf8, 0, utf8.length);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a lightweight Book view of book i.
+     * The title is only decoded when getTitle() is first called on the view.
+     */
+    public Book get(int index) {
+        Objects.checkIndex(index, size);
+        return new BookView(this, index);
+    }
+
+    /**
+     * Returns the index of the first book with the given code, or -1.
+     * (This is a linear scan of the codes column; see BookIndex for O(1) lookup.)
+     */
+    public int indexOfCode(int code) {
+        int[] c = codes;
+        for (int i = 0; i < size; i++) {
+            if (c[i] == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indexes of all books whose title has no more than
+     * maxLengthOfTitle characters.  Only the titleLengths column is read,
+     * so no Book or String objects are created.
+     */
+    public int[] indexesOfShortTitles(int maxLengthOfTitle) {
+        int[] lengths = titleLengths;
+        int[] result = new int[8];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] <= maxLengthOfTitle) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n * 2);
+                }
+                result[n++] = i;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the number of books whose title has no more than maxLengthOfTitle characters.
+     */
+    public int countShortTitles(int maxLengthOfTitle) {
+        int[] lengths = titleLengths;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (lengths[i] <= maxLengthOfTitle) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Same result as AppMainMapsDemo.getShortTitledBooks(), but the books are
+     * returned as views and only the matching books are materialised.
+     */
+    public List<Book> getShortTitledBooks(int maxLengthOfTitle) {
+        int[] matches = indexesOfShortTitles(maxLengthOfTitle);
+        List<Book> bookList = new ArrayList<>(matches.length);
+        for (int i : matches) {
+            bookList.add(new BookView(this, i));
+        }
+        return bookList;
+    }
+
+    /**
+     * Bytes of native memory reserved for titles, and how many are in use.
+     */
+    public String memoryReport() {
+        long heapBytes = 16 + 4L * codes.length
+                + 16 + 4L * titleLengths.length
+                + 16 + 8L * titleOffsets.length
+                + 16 + 4L * titleByteLengths.length;
+        return "BookStore{size=" + size
+                + ", heapBytes=" + heapBytes
+                + ", offHeapBytesUsed=" + titlesUsed
+                + ", offHeapBytesReserved=" + (titles == null ? 0 : titles.byteSize())
+                + '}';
+    }
+
+    /**
+     * Frees the off-heap title memory.
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+            arena = null;
+            titles = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private void checkOpen() {
+        if (arena == null) {
+            throw new IllegalStateException("BookStore is closed");
+        }
+    }
+
+    private void growColumns() {
+        int newCapacity = codes.length * 2;
+        codes = Arrays.copyOf(codes, newCapacity);
+        titleLengths = Arrays.copyOf(titleLengths, newCapacity);
+        titleOffsets = Arrays.copyOf(titleOffsets, newCapacity);
+        titleByteLengths = Arrays.copyOf(titleByteLengths, newCapacity);
+    }
+
+    /**
+     * Off-heap segments cannot grow, so we allocate a bigger one in a new
+     * arena, copy the bytes across, and free the old arena.
+     */
+    private void ensureArenaCapacity(long required) {
+        long capacity = titles.byteSize();
+        if (required <= capacity) {
+            return;
+        }
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        Arena newArena = Arena.ofShared();
+        MemorySegment newTitles = newArena.allocate(capacity);
+        MemorySegment.copy(titles, 0, newTitles, 0, titlesUsed);
+        arena.close();
+        arena = newArena;
+        titles = newTitles;
+    }
+
+    /**
+     * A Book that reads its fields from a BookStore.
+     * The title String is created on first use and then kept.
+     */
+    private static final class BookView extends Book {
+        private final BookStore store;
+        private final int index;
+
+        BookView(BookStore store, int index) {
+            super(store.codes[index], null);
+            this.store = store;
+            this.index = index;
+        }
+
+        @Override
+        public String getTitle() {
+            if (title == null) {
+                title = store.getTitle(index);
+            }
+            return title;
+        }
+
+        @Override
+        public String toString() {
+            return "Book{" + "code=" + code + ", title=" + getTitle() + '}';
+        }
+    }
+}
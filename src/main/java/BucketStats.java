@@ -0,0 +1,154 @@
+/**
+ * BucketStats - shows how evenly a set of keys is spread over the buckets of a HashMap.
+ * <p>
+ * A HashMap puts each key in bucket (h ^ (h >>> 16)) & (tableSize - 1), where
+ * h is key.hashCode().  Keys in the same bucket form a "collision chain",
+ * and get() has to call equals() on each key in the chain.  A weak hashCode()
+ * puts many keys in the same buckets, so the chains get long and get() gets slow.
+ * <p>
+ * BucketStats works out which bucket each key would go into and reports:
+ * - how many buckets are used, and the load (keys / buckets)
+ * - the average and longest chain length
+ * - the average number of equals() calls needed to find a key that is in the map
+ */
+
+import java.util.Collection;
+import java.util.Locale;
+
+public class BucketStats {
+
+    private final int keys;
+    private final int buckets;
+    private final int usedBuckets;
+    private final int longestChain;
+    private final double averageChain;      // over buckets that are used
+    private final double averageProbes;     // equals() calls per successful get()
+    private final int[] chainLengthCounts;  // chainLengthCounts[n] = number of buckets holding n keys (last entry = "n or more")
+
+    private BucketStats(int keys, int[] chainLengths) {
+        this.keys = keys;
+        this.buckets = chainLengths.length;
+        int used = 0;
+        int longest = 0;
+        long probes = 0;
+        int[] histogram = new int[9];
+        for (int length : chainLengths) {
+            if (length > 0) {
+                used++;
+            }
+            longest = Math.max(longest, length);
+            probes += (long) length * (length + 1) / 2;  // finding the i'th key in a chain takes i calls
+            histogram[Math.min(length, histogram.length - 1)]++;
+        }
+        this.usedBuckets = used;
+        this.longestChain = longest;
+        this.averageChain = used == 0 ? 0 : (double) keys / used;
+        this.averageProbes = keys == 0 ? 0 : (double) probes / keys;
+        this.chainLengthCounts = histogram;
+    }
+
+    /**
+     * Works out the bucket statistics for keys in a HashMap table of the given
+     * size (rounded up to a power of two, as HashMap does).
+     */
+    public static BucketStats of(Collection<?> keys, int tableSize) {
+        int n = Integer.highestOneBit(Math.max(1, tableSize - 1)) << 1;
+        int[] chainLengths = new int[n];
+        for (Object key : keys) {
+            int h = key == null ? 0 : key.hashCode();
+            chainLengths[(h ^ (h >>> 16)) & (n - 1)]++;
+        }
+        return new BucketStats(keys.size(), chainLengths);
+    }
+
+    /**
+     * Works out the bucket statistics for keys in a HashMap table of the size
+     * that a HashMap holding that many keys would have (see hashMapTableSize()).
+     */
+    public static BucketStats of(Collection<?> keys) {
+        return of(keys, hashMapTableSize(keys.size()));
+    }
+
+    /**
+     * Number of buckets in a new HashMap() after that many keys are put in it.
+     * The table starts with 16 buckets and doubles whenever it becomes more
+     * than 3/4 full (load factor 0.75), so it never has fewer than 16.
+     */
+    public static int hashMapTableSize(int keys) {
+        int n = (int) Math.min(1 << 30, (long) Math.ceil(keys / 0.75));
+        return Math.max(16, Integer.highestOneBit(Math.max(1, n - 1)) << 1);
+    }
+
+    /**
+     * Statistics from the chain length of each bucket (for other hashing schemes).
+     */
+    public static BucketStats ofChainLengths(int[] chainLengths) {
+        int keys = 0;
+        for (int length : chainLengths) {
+            keys += length;
+        }
+        return new BucketStats(keys, chainLengths);
+    }
+
+    public int keys() {
+        return keys;
+    }
+
+    public int buckets() {
+        return buckets;
+    }
+
+    public int usedBuckets() {
+        return usedBuckets;
+    }
+
+    public int longestChain() {
+        return longestChain;
+    }
+
+    public double averageChain() {
+        return averageChain;
+    }
+
+    public double averageProbes() {
+        return averageProbes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("keys=").append(keys)
+                .append(", buckets=").append(buckets)
+                .append(", usedBuckets=").append(usedBuckets)
+                .append(", longestChain=").append(longestChain)
+                .append(", averageChain=").append(String.format(Locale.ROOT, "%.2f", averageChain))
+                .append(", averageProbes=").append(String.format(Locale.ROOT, "%.2f", averageProbes))
+                .append(", chainLengths={");
+        for (int n = 0; n < chainLengthCounts.length; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            sb.append(n == chainLengthCounts.length - 1 ? n + "+" : String.valueOf(n))
+                    .append('=').append(chainLengthCounts[n]);
+        }
+        return sb.append('}').toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"keys\":").append(keys)
+                .append(",\"buckets\":").append(buckets)
+                .append(",\"usedBuckets\":").append(usedBuckets)
+                .append(",\"longestChain\":").append(longestChain)
+                .append(",\"averageChain\":").append(String.format(Locale.ROOT, "%.2f", averageChain))
+                .append(",\"averageProbes\":").append(String.format(Locale.ROOT, "%.2f", averageProbes))
+                .append(",\"chainLengthCounts\":[");
+        for (int n = 0; n < chainLengthCounts.length; n++) {
+            if (n > 0) {
+                sb.append(',');
+            }
+            sb.append(chainLengthCounts[n]);
+        }
+        return sb.append("]}").toString();
+    }
+}
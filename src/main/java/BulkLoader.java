@@ -0,0 +1,614 @@
+/**
+ * BulkLoader - loads Books and Student => Book assignments from large CSV or NDJSON files.
+ * <p>
+ * Every map in AppMainMapsDemo is filled with hard-coded put() calls.  To load a
+ * real data set, BulkLoader:
+ * - reads the file through a FileChannel into a ByteBuffer, and parses the
+ *   bytes directly.  Numbers are parsed from the bytes, so the only Strings
+ *   created are the titles and names themselves (not one String per line).
+ * - estimates the number of records from the file size and the length of the
+ *   first lines, and creates the target map with that capacity, so the map
+ *   does not have to resize (rehash) over and over while it is filled.
+ * - splits the file into chunks (one per thread), which are parsed at the same
+ *   time.  Each chunk starts at the first line that begins inside it.
+ * <p>
+ * File formats (the format is chosen from the file extension, .csv or .ndjson/.jsonl):
+ *   books.csv          code,title            e.g.  30004,Fight Club
+ *   books.ndjson       {"code":30004,"title":"Fight Club"}
+ *   favourites.csv     id,name,bookCode      e.g.  1001,Tom Malone,30004
+ *   favourites.ndjson  {"id":1001,"name":"Tom Malone","bookCode":30004}
+ * A CSV file may start with a header line, which must be exactly the column
+ * names above (code,title or id,name,bookCode).  Text containing commas or quotes
+ * must be in double quotes, with "" for a quote inside the text.
+ * <p>
+ * A badly formed line causes an IllegalArgumentException giving its position
+ * in the file.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class BulkLoader {
+
+    private static final int BUFFER_SIZE = 1 << 20;   // 1MB read buffer per thread
+    private static final int SAMPLE_SIZE = 64 * 1024;  // bytes read to estimate the record count
+
+    public enum Format { CSV, NDJSON }
+
+    private final int threads;
+
+    public BulkLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BulkLoader(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public static Format formatOf(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) {
+            return Format.CSV;
+        }
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return Format.NDJSON;
+        }
+        throw new IllegalArgumentException("Unknown file type (expected .csv or .ndjson): " + file);
+    }
+
+    /**
+     * Loads a books file into a BookIndex (int code => Book).
+     */
+    public BookIndex loadBookIndex(Path booksFile) throws IOException {
+        List<Records> chunks = parse(booksFile, RecordType.BOOK);
+        BookIndex index = new BookIndex(total(chunks));
+        for (Records records : chunks) {
+            for (int i = 0; i < records.size; i++) {
+                index.put(records.firstInts[i], new Book(records.firstInts[i], records.texts[i]));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Loads a books file into a HashMap<Integer, Book>, like the bookMap in map3().
+     */
+    public Map<Integer, Book> loadBookMap(Path booksFile) throws IOException {
+        List<Records> chunks = parse(booksFile, RecordType.BOOK);
+        Map<Integer, Book> bookMap = new HashMap<>(capacityFor(total(chunks)));
+        for (Records records : chunks) {
+            for (int i = 0; i < records.size; i++) {
+                bookMap.put(records.firstInts[i], new Book(records.firstInts[i], records.texts[i]));
+            }
+        }
+        return bookMap;
+    }
+
+    /**
+     * Loads a favourites file into a Map<StudentKey, Book>, like the favouriteBook map in map7().
+     * Each book code is looked up in books; a code that is not there causes an IllegalArgumentException.
+     */
+    public Map<StudentKey, Book> loadFavouriteBooks(Path favouritesFile, BookIndex books) throws IOException {
+        List<Records> chunks = parse(favouritesFile, RecordType.FAVOURITE);
+        Map<StudentKey, Book> favouriteBook = new HashMap<>(capacityFor(total(chunks)));
+        for (Records records : chunks) {
+            for (int i = 0; i < records.size; i++) {
+                Book book = books.get(records.secondInts[i]);
+                if (book == null) {
+                    throw new IllegalArgumentException("Unknown book code " + records.secondInts[i]
+                            + " for student " + records.firstInts[i] + " in " + favouritesFile);
+                }
+                favouriteBook.put(new StudentKey(records.firstInts[i], records.texts[i]), book);
+            }
+        }
+        return favouriteBook;
+    }
+
+    /**
+     * Estimates how many records (lines) a file holds, from its size and the
+     * average length of the lines in its first 64KB.
+     */
+    public static long estimateRecordCount(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, fileSize));
+            while (sample.hasRemaining() && channel.read(sample, sample.position()) > 0) {
+                // keep reading until the sample is full
+            }
+            int lines = 0;
+            for (int i = 0; i < sample.position(); i++) {
+                if (sample.get(i) == '\n') {
+                    lines++;
+                }
+            }
+            if (lines == 0) {
+                return fileSize == 0 ? 0 : 1;
+            }
+            return (long) Math.ceil((double) fileSize * lines / sample.position());
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** What each line holds: an int, a text and (for favourites) a second int. */
+    private enum RecordType {
+        BOOK("code", "title", null),
+        FAVOURITE("id", "name", "bookCode");
+
+        final byte[] firstIntName;
+        final byte[] textName;
+        final byte[] secondIntName;   // null if there is no second int
+        final byte[] csvHeader;       // the column names, e.g. code,title
+
+        RecordType(String firstIntName, String textName, String secondIntName) {
+            this.firstIntName = firstIntName.getBytes(StandardCharsets.US_ASCII);
+            this.textName = textName.getBytes(StandardCharsets.US_ASCII);
+            this.secondIntName = secondIntName == null ? null : secondIntName.getBytes(StandardCharsets.US_ASCII);
+            String header = firstIntName + "," + textName + (secondIntName == null ? "" : "," + secondIntName);
+            this.csvHeader = header.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /** The records parsed from one chunk, stored as columns. */
+    private static final class Records {
+        int[] firstInts = new int[1024];
+        String[] texts = new String[1024];
+        int[] secondInts = new int[1024];
+        int size;
+
+        void add(int firstInt, String text, int secondInt) {
+            if (size == texts.length) {
+                firstInts = Arrays.copyOf(firstInts, size * 2);
+                texts = Arrays.copyOf(texts, size * 2);
+                secondInts = Arrays.copyOf(secondInts, size * 2);
+            }
+            firstInts[size] = firstInt;
+            texts[size] = text;
+            secondInts[size] = secondInt;
+            size++;
+        }
+    }
+
+    private static int total(List<Records> chunks) {
+        long total = 0;
+        for (Records records : chunks) {
+            total += records.size;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many records for one map: " + total);
+        }
+        return (int) total;
+    }
+
+    /** HashMap capacity that holds n entries without resizing. */
+    private static int capacityFor(int n) {
+        return (int) Math.min(1 << 30, (long) Math.ceil(n / 0.75));
+    }
+
+    /**
+     * Splits the file into chunks, parses them in parallel, and returns the
+     * records of each chunk in file order.
+     */
+    private List<Records> parse(Path file, RecordType type) throws IOException {
+        Format format = formatOf(file);
+        long expected = estimateRecordCount(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            // small files are not worth splitting
+            int chunks = (int) Math.max(1, Math.min(threads, fileSize / BUFFER_SIZE));
+            int expectedPerChunk = (int) Math.min(Integer.MAX_VALUE - 8, expected / chunks + 16);
+
+            if (chunks == 1) {
+                return List.of(parseChunk(channel, 0, fileSize, format, type, expectedPerChunk));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(chunks);
+            try {
+                List<Future<Records>> futures = new ArrayList<>();
+                for (int c = 0; c < chunks; c++) {
+                    long start = fileSize * c / chunks;
+                    long end = fileSize * (c + 1) / chunks;
+                    futures.add(executor.submit(() -> parseChunk(channel, start, end, format, type, expectedPerChunk)));
+                }
+                List<Records> results = new ArrayList<>(chunks);
+                for (Future<Records> future : futures) {
+                    results.add(future.get());
+                }
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + file, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("Failed to load " + file, cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Parses every line that starts at a position in [start, end).
+     * Uses positional reads, so several threads can share one FileChannel.
+     */
+    private static Records parseChunk(FileChannel channel, long start, long end, Format format,
+                                      RecordType type, int expectedRecords) throws IOException {
+        Records records = new Records();
+        if (expectedRecords > records.texts.length) {
+            records.firstInts = new int[expectedRecords];
+            records.texts = new String[expectedRecords];
+            records.secondInts = new int[expectedRecords];
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long bufferFilePosition = start;   // file position of buffer[0]
+        long fileSize = channel.size();
+
+        // If the chunk starts part-way through a line, that line belongs to the previous chunk.
+        if (start > 0) {
+            ByteBuffer previous = ByteBuffer.allocate(1);
+            channel.read(previous, start - 1);
+            if (previous.get(0) != '\n') {
+                bufferFilePosition = skipToNextLine(channel, start, buffer);
+            }
+        }
+
+        boolean firstLineOfFile = start == 0;
+        buffer.clear();
+        while (bufferFilePosition < end) {
+            // fill the buffer
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, bufferFilePosition + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            boolean endOfFile = bufferFilePosition + buffer.position() >= fileSize;
+            byte[] bytes = buffer.array();
+            int limit = buffer.position();
+
+            int lineStart = 0;
+            while (lineStart < limit && bufferFilePosition + lineStart < end) {
+                int lineEnd = indexOf(bytes, (byte) '\n', lineStart, limit);
+                if (lineEnd < 0) {
+                    if (!endOfFile) {
+                        break;   // incomplete line: read more
+                    }
+                    lineEnd = limit;
+                }
+                int contentEnd = lineEnd;
+                if (contentEnd > lineStart && bytes[contentEnd - 1] == '\r') {
+                    contentEnd--;
+                }
+                if (contentEnd > lineStart) {
+                    long linePosition = bufferFilePosition + lineStart;
+                    if (format == Format.CSV) {
+                        if (!(firstLineOfFile && isCsvHeader(bytes, lineStart, contentEnd, type))) {
+                            parseCsvLine(bytes, lineStart, contentEnd, type, records, linePosition);
+                        }
+                    } else {
+                        parseJsonLine(bytes, lineStart, contentEnd, type, records, linePosition);
+                    }
+                }
+                firstLineOfFile = false;
+                lineStart = lineEnd + 1;
+            }
+
+            if (endOfFile && lineStart >= limit) {
+                break;   // every line has been parsed
+            }
+            if (lineStart == 0 && limit == buffer.capacity()) {
+                // a single line longer than the buffer: use a bigger buffer
+                ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                bigger.put(buffer.flip());
+                buffer = bigger;
+                continue;
+            }
+            // move the incomplete line to the start of the buffer and read the rest
+            bufferFilePosition += lineStart;
+            buffer.position(lineStart).limit(limit);
+            buffer.compact();
+        }
+        return records;
+    }
+
+    /** Returns the file position of the start of the line after position. */
+    private static long skipToNextLine(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        long fileSize = channel.size();
+        while (position < fileSize) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if (n <= 0) {
+                break;
+            }
+            int newline = indexOf(buffer.array(), (byte) '\n', 0, n);
+            if (newline >= 0) {
+                return position + newline + 1;
+            }
+            position += n;
+        }
+        return fileSize;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isCsvHeader(byte[] bytes, int start, int end, RecordType type) {
+        return nameEquals(bytes, start, end, type.csvHeader);
+    }
+
+    // --- CSV ---------------------------------------------------------------
+
+    private static void parseCsvLine(byte[] bytes, int start, int end, RecordType type,
+                                     Records records, long position) {
+        int comma = indexOf(bytes, (byte) ',', start, end);
+        if (comma < 0) {
+            throw badRecord(bytes, start, end, position);
+        }
+        int firstInt = parseInt(bytes, start, comma, position);
+
+        int textStart = comma + 1;
+        int textEnd;
+        String text;
+        if (textStart < end && bytes[textStart] == '"') {
+            int close = closingQuote(bytes, textStart + 1, end);
+            if (close < 0) {
+                throw badRecord(bytes, start, end, position);
+            }
+            text = unquote(bytes, textStart + 1, close);
+            textEnd = close + 1;
+        } else {
+            textEnd = type.secondIntName == null ? end : lastIndexOf(bytes, (byte) ',', textStart, end);
+            if (textEnd < 0) {
+                throw badRecord(bytes, start, end, position);
+            }
+            text = new String(bytes, textStart, textEnd - textStart, StandardCharsets.UTF_8);
+        }
+
+        int secondInt = 0;
+        if (type.secondIntName != null) {
+            if (textEnd >= end || bytes[textEnd] != ',') {
+                throw badRecord(bytes, start, end, position);
+            }
+            secondInt = parseInt(bytes, textEnd + 1, end, position);
+        } else if (textEnd != end) {
+            throw badRecord(bytes, start, end, position);
+        }
+        records.add(firstInt, text, secondInt);
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Finds the quote that ends a quoted field ("" is an escaped quote, not the end). */
+    private static int closingQuote(byte[] bytes, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == '"') {
+                if (i + 1 < end && bytes[i + 1] == '"') {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String unquote(byte[] bytes, int from, int to) {
+        if (indexOf(bytes, (byte) '"', from, to) < 0) {
+            return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] out = new byte[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            out[n++] = bytes[i];
+            if (bytes[i] == '"') {
+                i++;   // skip the second quote of ""
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    // --- NDJSON ------------------------------------------------------------
+
+    /**
+     * Parses one flat JSON object, e.g. {"code":30004,"title":"Fight Club"}.
+     * Fields other than the ones needed are skipped if they are numbers or strings.
+     */
+    private static void parseJsonLine(byte[] bytes, int start, int end, RecordType type,
+                                      Records records, long position) {
+        int[] cursor = {skipSpaces(bytes, start, end)};
+        if (cursor[0] >= end || bytes[cursor[0]++] != '{') {
+            throw badRecord(bytes, start, end, position);
+        }
+        int firstInt = 0;
+        int secondInt = 0;
+        boolean seenFirstInt = false;
+        boolean seenSecondInt = false;
+        String text = null;
+
+        while (true) {
+            cursor[0] = skipSpaces(bytes, cursor[0], end);
+            if (cursor[0] < end && bytes[cursor[0]] == '}') {
+                break;
+            }
+            if (cursor[0] >= end || bytes[cursor[0]] != '"') {
+                throw badRecord(bytes, start, end, position);
+            }
+            int nameStart = cursor[0] + 1;
+            int nameEnd = indexOf(bytes, (byte) '"', nameStart, end);
+            if (nameEnd < 0) {
+                throw badRecord(bytes, start, end, position);
+            }
+            cursor[0] = skipSpaces(bytes, nameEnd + 1, end);
+            if (cursor[0] >= end || bytes[cursor[0]++] != ':') {
+                throw badRecord(bytes, start, end, position);
+            }
+            cursor[0] = skipSpaces(bytes, cursor[0], end);
+            if (cursor[0] >= end) {
+                throw badRecord(bytes, start, end, position);
+            }
+
+            if (bytes[cursor[0]] == '"') {
+                String value = parseJsonString(bytes, cursor, end, start, position);
+                if (nameEquals(bytes, nameStart, nameEnd, type.textName)) {
+                    text = value;
+                }
+            } else {
+                int valueStart = cursor[0];
+                while (cursor[0] < end && bytes[cursor[0]] != ',' && bytes[cursor[0]] != '}'
+                        && bytes[cursor[0]] != ' ') {
+                    cursor[0]++;
+                }
+                if (nameEquals(bytes, nameStart, nameEnd, type.firstIntName)) {
+                    firstInt = parseInt(bytes, valueStart, cursor[0], position);
+                    seenFirstInt = true;
+                } else if (type.secondIntName != null && nameEquals(bytes, nameStart, nameEnd, type.secondIntName)) {
+                    secondInt = parseInt(bytes, valueStart, cursor[0], position);
+                    seenSecondInt = true;
+                }
+            }
+
+            cursor[0] = skipSpaces(bytes, cursor[0], end);
+            if (cursor[0] < end && bytes[cursor[0]] == ',') {
+                cursor[0]++;
+            }
+        }
+
+        if (!seenFirstInt || text == null || (type.secondIntName != null && !seenSecondInt)) {
+            throw badRecord(bytes, start, end, position);
+        }
+        records.add(firstInt, text, secondInt);
+    }
+
+    private static String parseJsonString(byte[] bytes, int[] cursor, int end, int lineStart, long position) {
+        int from = cursor[0] + 1;
+        int i = from;
+        boolean escaped = false;
+        while (i < end && bytes[i] != '"') {
+            if (bytes[i] == '\\') {
+                escaped = true;
+                i++;
+            }
+            i++;
+        }
+        if (i >= end) {
+            throw badRecord(bytes, lineStart, end, position);
+        }
+        cursor[0] = i + 1;
+        if (!escaped) {
+            return new String(bytes, from, i - from, StandardCharsets.UTF_8);
+        }
+        // rare case: decode escapes (\" \\ \/ \n \t \r \b \f \\uXXXX)
+        String raw = new String(bytes, from, i - from, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int k = 0; k < raw.length(); k++) {
+            char c = raw.charAt(k);
+            if (c != '\\' || k + 1 == raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = raw.charAt(++k);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (k + 4 >= raw.length()) {
+                        throw badRecord(bytes, lineStart, end, position);
+                    }
+                    sb.append((char) Integer.parseInt(raw.substring(k + 1, k + 5), 16));
+                    k += 4;
+                    break;
+                default: sb.append(e);   // \" \\ \/
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean nameEquals(byte[] bytes, int from, int to, byte[] name) {
+        if (to - from != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (bytes[from + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipSpaces(byte[] bytes, int from, int end) {
+        while (from < end && (bytes[from] == ' ' || bytes[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    // --- shared --------------------------------------------------------------
+
+    /** Parses a decimal int directly from the bytes, without creating a String. */
+    private static int parseInt(byte[] bytes, int from, int to, long position) {
+        while (from < to && bytes[from] == ' ') {
+            from++;
+        }
+        while (to > from && bytes[to - 1] == ' ') {
+            to--;
+        }
+        boolean negative = from < to && bytes[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to) {
+            throw new IllegalArgumentException("Missing number at byte " + position);
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Bad number '" + new String(bytes, from, to - from, StandardCharsets.UTF_8)
+                        + "' at byte " + position);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new IllegalArgumentException("Number too large at byte " + position);
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number too large at byte " + position);
+        }
+        return (int) value;
+    }
+
+    private static IllegalArgumentException badRecord(byte[] bytes, int start, int end, long position) {
+        return new IllegalArgumentException("Bad record at byte " + position + ": "
+                + new String(bytes, start, Math.min(end - start, 200), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * CatalogueShard - one part of a ShardedCatalogue: a code => Book map that may live in another JVM.
+ * <p>
+ * A shard in this JVM is just a ConcurrentHashMap (ShardedCatalogue.LocalShard);
+ * a shard in another JVM is reached through a BookLookupClient
+ * (ShardedCatalogue.RemoteShard).  Every method can throw IOException, because
+ * a remote shard can fail or be unreachable.
+ * <p>
+ * A shard can hold more books than fit in the heap of the JVM using it, so
+ * scan() reads the books a page at a time, and size() counts them without reading them.
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+public interface CatalogueShard extends AutoCloseable {
+
+    Book get(int code) throws IOException;
+
+    /**
+     * Adds or replaces the book with book.getCode(), and returns the book it replaced (or null).
+     */
+    Book put(Book book) throws IOException;
+
+    Book remove(int code) throws IOException;
+
+    boolean containsKey(int code) throws IOException;
+
+    /**
+     * Number of books in this shard.
+     */
+    int size() throws IOException;
+
+    /**
+     * Starts reading every book in this shard, pageSize books at a time.  Books can
+     * be put or removed between pages (a book added or removed during the scan may
+     * or may not be returned).  Only one scan of a shard should be in progress at a time.
+     */
+    Scan scan(int pageSize) throws IOException;
+
+    /**
+     * All books in this shard whose title is at most maxTitleLength characters long.
+     * With Integer.MAX_VALUE this returns every book in the shard.
+     */
+    List<Book> shortTitledBooks(int maxTitleLength) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    interface Scan {
+        /**
+         * The next page of books (at most pageSize), or an empty list once every book has been returned.
+         */
+        List<Book> nextPage() throws IOException;
+    }
+}
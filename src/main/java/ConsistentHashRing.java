@@ -0,0 +1,163 @@
+/**
+ * ConsistentHashRing - decides which shard (part of a split-up map) holds each key.
+ * <p>
+ * The simple way to split keys over N shards is shard = hash(key) % N.  But
+ * then adding one shard changes N, and almost every key moves to a different
+ * shard.
+ * <p>
+ * With consistent hashing, hash values are thought of as points on a circle
+ * (a "ring").  Each shard is placed at many points on the ring ("virtual
+ * nodes"), and a key belongs to the first shard point found going clockwise
+ * from the key's hash.  When a shard is added, it only takes over the keys
+ * just before its own points, about 1/N of all keys, and every other key stays
+ * where it was.  Using many points per shard spreads the keys evenly.
+ * Keys and points are placed with HashMixers.mix(), so neighbouring book codes
+ * land far apart on the ring.
+ * <p>
+ * For replication, a key is also kept by the next shards clockwise (skipping
+ * points of shards already chosen), so replicasFor(key, 3) gives three different shards.
+ * <p>
+ * The ring is kept in a TreeMap of point => shard name, so finding the next
+ * point clockwise is ceilingEntry().  Not thread-safe.
+ */
+
+import java.util.*;
+
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_POINTS_PER_SHARD = 128;
+
+    private final int pointsPerShard;
+    private final TreeMap<Integer, String> ring = new TreeMap<>();
+    private final Set<String> shards = new LinkedHashSet<>();
+
+    public ConsistentHashRing() {
+        this(DEFAULT_POINTS_PER_SHARD);
+    }
+
+    public ConsistentHashRing(int pointsPerShard) {
+        if (pointsPerShard < 1) {
+            throw new IllegalArgumentException("pointsPerShard must be at least 1: " + pointsPerShard);
+        }
+        this.pointsPerShard = pointsPerShard;
+    }
+
+    public void addShard(String name) {
+        if (!shards.add(name)) {
+            throw new IllegalArgumentException("Shard already on the ring: " + name);
+        }
+        for (int i = 0; i < pointsPerShard; i++) {
+            // if two points land on the same spot (very rare), the first shard keeps it
+            ring.putIfAbsent(pointOf(name, i), name);
+        }
+    }
+
+    /**
+     * A ring with the same shards and points, which can be changed without changing this one.
+     */
+    public ConsistentHashRing copy() {
+        ConsistentHashRing copy = new ConsistentHashRing(pointsPerShard);
+        copy.ring.putAll(ring);
+        copy.shards.addAll(shards);
+        return copy;
+    }
+
+    public void removeShard(String name) {
+        if (!shards.remove(name)) {
+            throw new IllegalArgumentException("Shard not on the ring: " + name);
+        }
+        ring.values().removeIf(name::equals);
+    }
+
+    public Set<String> shards() {
+        return Collections.unmodifiableSet(shards);
+    }
+
+    /**
+     * The shard that owns the key (its "primary").
+     */
+    public String shardFor(int key) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("The ring has no shards");
+        }
+        Map.Entry<Integer, String> point = ring.ceilingEntry(HashMixers.mix(key));
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Up to count different shards for the key: its primary first, then the
+     * next shards clockwise.  Fewer are returned if there are fewer shards.
+     */
+    public List<String> replicasFor(int key, int count) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("The ring has no shards");
+        }
+        return replicasForHash(HashMixers.mix(key), count);
+    }
+
+    /**
+     * True if every key has at least one of its count replicas in the given shards,
+     * for example the shards that are still working.
+     */
+    public boolean everyKeyHasReplicaIn(Set<String> available, int count) {
+        if (ring.isEmpty()) {
+            return true;
+        }
+        // all the keys between two neighbouring points have the same replicas as the second point
+        for (int point : ring.keySet()) {
+            if (Collections.disjoint(replicasForHash(point, count), available)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<String> replicasForHash(int h, int count) {
+        int wanted = Math.min(count, shards.size());
+        List<String> replicas = new ArrayList<>(wanted);
+        // walk clockwise from the key, wrapping round to the start of the ring
+        for (String shard : ring.tailMap(h, true).values()) {
+            if (replicas.size() == wanted) {
+                return replicas;
+            }
+            if (!replicas.contains(shard)) {
+                replicas.add(shard);
+            }
+        }
+        for (String shard : ring.headMap(h, false).values()) {
+            if (replicas.size() == wanted) {
+                return replicas;
+            }
+            if (!replicas.contains(shard)) {
+                replicas.add(shard);
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * Fraction of all hash values (so, of keys) owned by each shard as primary.
+     * With DEFAULT_POINTS_PER_SHARD each shard usually gets within about 10% of 1/N,
+     * and rarely more than 25% away from it (more points per shard evens it out further).
+     */
+    public Map<String, Double> shares() {
+        Map<String, Double> shares = new TreeMap<>();
+        long previous = ring.isEmpty() ? 0 : ring.lastKey() - (1L << 32);   // the last point, one turn back
+        for (Map.Entry<Integer, String> point : ring.entrySet()) {
+            // the point owns the hash values after the previous point, up to itself
+            shares.merge(point.getValue(), (point.getKey() - previous) / (double) (1L << 32), Double::sum);
+            previous = point.getKey();
+        }
+        return shares;
+    }
+
+    /**
+     * Position of a shard's i'th point.  The name's hash is mixed before i is
+     * added: with name.hashCode() * 31 + i, shards with nearby hash codes ("a"
+     * and "b") would share most of their points, and lose them to whichever
+     * shard was added first.
+     */
+    private static int pointOf(String name, int i) {
+        return HashMixers.mix(HashMixers.mix(name.hashCode()) ^ i);
+    }
+}
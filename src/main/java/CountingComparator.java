@@ -0,0 +1,43 @@
+/**
+ * CountingComparator - wraps a Comparator and counts how many times compare() is called.
+ * <p>
+ * A TreeMap calls its Comparator about log2(n) times for each put() and get().
+ * Wrapping ComparatorStudentName in a CountingComparator lets us see how
+ * many comparisons a TreeMap really makes:
+ *   CountingComparator<Student> comparator = new CountingComparator<>(new ComparatorStudentName());
+ *   Map<Student, Book> favouriteBook = new TreeMap<>(comparator);
+ *   ...
+ *   System.out.println(comparator.getCount() + " comparisons");
+ */
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CountingComparator<T> implements Comparator<T> {
+
+    private final Comparator<? super T> comparator;
+    private final LongAdder count = new LongAdder();   // thread-safe, and cheap when many threads update it
+
+    public CountingComparator(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    @Override
+    public int compare(T o1, T o2) {
+        count.increment();
+        return comparator.compare(o1, o2);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public void reset() {
+        count.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "CountingComparator{compares=" + getCount() + ", comparator=" + comparator + '}';
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * DurabilityBenchmark - measures how many updates per second DurableFavouriteBooks manages in each Durability mode.
+ * <p>
+ * For each mode it opens an empty DurableFavouriteBooks in a new directory, and
+ * for a fixed time every thread repeatedly puts a random student's favourite
+ * book.  Every update is timed (by LoadHarness), and for each mode it reports the throughput
+ * (updates per second), the number of fsyncs (so updates per fsync shows how
+ * well group commit batches), and the put() latency percentiles.
+ * <p>
+ * Usage: DurabilityBenchmark [threads] [seconds] [directory]
+ *   defaults: 64 (virtual) threads, 5 seconds per mode, and a new temporary directory.
+ *   Use a directory on the disk you want to measure: fsync speed depends on it.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+public class DurabilityBenchmark {
+
+    public static final int STUDENT_COUNT = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Path directory = args.length > 2 ? Path.of(args[2]) : Files.createTempDirectory("durability-benchmark");
+
+        for (DurableFavouriteBooks.Durability durability : DurableFavouriteBooks.Durability.values()) {
+            Path modeDirectory = directory.resolve(durability.name().toLowerCase(Locale.ROOT));
+            try {
+                System.out.println(run(modeDirectory, durability, threads, seconds));
+            } finally {
+                deleteDirectory(modeDirectory);
+            }
+        }
+    }
+
+    /**
+     * Runs the updates against a new DurableFavouriteBooks in the (empty or missing) directory.
+     */
+    public static Result run(Path directory, DurableFavouriteBooks.Durability durability, int threads, int seconds)
+            throws IOException, InterruptedException {
+        if (threads < 1 || seconds < 1) {
+            throw new IllegalArgumentException("Bad benchmark settings: threads=" + threads + ", seconds=" + seconds);
+        }
+        try (DurableFavouriteBooks favourites = DurableFavouriteBooks.open(directory, durability)) {
+            LoadHarness.Operation update = random -> {
+                int id = random.nextInt(STUDENT_COUNT);
+                int code = random.nextInt(STUDENT_COUNT);
+                favourites.put(new StudentKey(id, "Student " + id), new Book(code, "Title " + code));
+                return 1;
+            };
+            LoadHarness.Result load = LoadHarness.run(Collections.nCopies(threads, update), seconds);
+            return new Result(durability, load, favourites.syncCount());
+        }
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    public static class Result {
+        private final DurableFavouriteBooks.Durability durability;
+        private final LoadHarness.Result load;
+        private final long syncs;
+
+        Result(DurableFavouriteBooks.Durability durability, LoadHarness.Result load, long syncs) {
+            this.durability = durability;
+            this.load = load;
+            this.syncs = syncs;
+        }
+
+        public long updates() {
+            return load.requests();
+        }
+
+        public double updatesPerSecond() {
+            return load.requestsPerSecond();
+        }
+
+        public double updatesPerSync() {
+            return syncs == 0 ? 0 : (double) load.requests() / syncs;
+        }
+
+        public LatencyHistogram latencies() {
+            return load.latencies();
+        }
+
+        @Override
+        public String toString() {
+            return "durability=" + durability + ", threads=" + load.threads()
+                    + ", syncs=" + syncs
+                    + ", updatesPerSync=" + String.format(Locale.ROOT, "%.1f", updatesPerSync())
+                    + ", " + load;
+        }
+
+        public String toJson() {
+            return "{\"durability\":\"" + durability + "\""
+                    + ",\"threads\":" + load.threads()
+                    + ",\"syncs\":" + syncs
+                    + ",\"updatesPerSync\":" + String.format(Locale.ROOT, "%.1f", updatesPerSync())
+                    + "," + load.toJsonFields()
+                    + "}";
+        }
+    }
+}
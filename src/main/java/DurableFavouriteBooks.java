@@ -0,0 +1,631 @@
+/**
+ * DurableFavouriteBooks - a FavouriteBookRegistry (Student => Book) whose updates survive a crash.
+ * <p>
+ * The maps in map7() and map9() only exist in memory: when the program stops,
+ * every put() is lost.  Here each put() and remove() is also appended to a
+ * "write-ahead log" file before it counts as done.  When the registry is
+ * opened again, the log is read back ("replayed") to rebuild the map.
+ * <p>
+ * Writing to a file is fast, but the data is only safe on disk after an
+ * fsync (FileChannel.force()), which can take milliseconds.  Three Durability
+ * modes trade speed for safety:
+ * - SYNC_EACH:    every update is written and fsynced on its own before it returns.
+ *                 Safest, and slowest: one fsync per update, one update at a time.
+ * - GROUP_COMMIT: an update returns only once it is fsynced, but while one thread
+ *                 is fsyncing, the updates of other threads queue up, and the next
+ *                 fsync saves all of them together ("group commit").  Just as safe,
+ *                 and with many threads much faster.
+ * - ASYNC:        updates return at once; a background thread fsyncs every
+ *                 ASYNC_SYNC_MILLIS.  Fastest, but a crash can lose the last few
+ *                 milliseconds of updates.  sync() saves them straight away.
+ * <p>
+ * The log would grow forever, and replaying it would get slower and slower, so
+ * now and then (every checkpointBytes of log, or when checkpoint() is called)
+ * the whole map is saved as a MapSnapshot "checkpoint" and a new log file is
+ * started.  Older logs and checkpoints are then deleted.  To recover, the
+ * newest checkpoint is loaded and only the logs written after it are replayed.
+ * <p>
+ * Files in the directory (N is the "generation", counting up from 0):
+ *   favourites-N.log   updates made after checkpoint N was taken
+ *   favourites-N.snap  all entries at the moment log N was started
+ * Log record: [int length][int CRC32 of the data][data]
+ *   data:     [byte PUT][int id][String name][int code][String title]
+ *          or [byte REMOVE][int id][String name]      (strings as writeUTF)
+ * If the program crashed while writing a record, the end of the last log is
+ * incomplete or fails its CRC check.  Recovery stops there and cuts it off.
+ * <p>
+ * Updates are applied to the map when they are added to the log, so other
+ * threads may see an update shortly before it is safely on disk.  Updates are
+ * written in one order, so they hold a lock while they are added; reads do not lock.
+ * <p>
+ * Example:
+ *   try (DurableFavouriteBooks favourites = DurableFavouriteBooks.open(Path.of("data"), Durability.GROUP_COMMIT)) {
+ *       favourites.put(new Student(1001, "Tom Malone"), new Book(30004, "Lazy Days"));
+ *   }
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+public class DurableFavouriteBooks implements AutoCloseable {
+
+    public enum Durability { SYNC_EACH, GROUP_COMMIT, ASYNC }
+
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64L * 1024 * 1024;
+    public static final long ASYNC_SYNC_MILLIS = 10;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;   // larger means a corrupt log
+    private static final String PREFIX = "favourites-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long checkpointBytes;
+    private final FavouriteBookRegistry registry;
+
+    // everything below is guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private FileChannel log;
+    private long generation;
+    private long logBytes;
+    private byte[] pending = new byte[64 * 1024];   // records added but not yet written to the log
+    private byte[] spare = new byte[64 * 1024];     // swapped with pending while it is written
+    private int pendingLength;
+    private long appendedSequence;                  // number of records added to the log
+    private long syncedSequence;                    // number of records fsynced
+    private long syncCount;
+    private boolean syncing;                        // a thread is writing and fsyncing without the lock
+    private boolean checkpointing;
+    private IOException failure;                    // a failed fsync or background checkpoint
+    private boolean closed;
+
+    private final Thread asyncSyncer;
+    private Thread checkpointThread;
+
+    private DurableFavouriteBooks(Path directory, Durability durability, long checkpointBytes) {
+        this.directory = directory;
+        this.durability = durability;
+        this.checkpointBytes = checkpointBytes;
+        this.registry = new FavouriteBookRegistry();
+        this.asyncSyncer = durability == Durability.ASYNC
+                // a platform thread, so busy virtual threads that never block cannot starve it
+                ? Thread.ofPlatform().daemon().name("favourites-log-sync").unstarted(this::syncPeriodically)
+                : null;
+    }
+
+    public static DurableFavouriteBooks open(Path directory, Durability durability) throws IOException {
+        return open(directory, durability, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Opens the registry saved in the directory (creating it if needed), recovering
+     * every update that was safely logged.
+     *
+     * @param checkpointBytes take a checkpoint when the log grows beyond this size
+     */
+    public static DurableFavouriteBooks open(Path directory, Durability durability, long checkpointBytes)
+            throws IOException {
+        if (checkpointBytes < 1) {
+            throw new IllegalArgumentException("checkpointBytes must be positive: " + checkpointBytes);
+        }
+        Files.createDirectories(directory);
+        DurableFavouriteBooks favourites = new DurableFavouriteBooks(directory, durability, checkpointBytes);
+        favourites.recover();
+        if (favourites.asyncSyncer != null) {
+            favourites.asyncSyncer.start();
+        }
+        return favourites;
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    /**
+     * The in-memory registry, for reading.  Updating it directly bypasses the log.
+     */
+    public FavouriteBookRegistry registry() {
+        return registry;
+    }
+
+    public int size() {
+        return registry.size();
+    }
+
+    public Book get(StudentKey student) {
+        return registry.get(student);
+    }
+
+    public Book get(Student student) {
+        return registry.get(student);
+    }
+
+    public Book put(Student student, Book book) throws IOException {
+        return put(student.toKey(), book);
+    }
+
+    /**
+     * Adds or replaces the student's favourite book, and returns the book it replaced (or null).
+     * Depending on the durability mode, returns once the update is safely on disk.
+     */
+    public Book put(StudentKey student, Book book) throws IOException {
+        Objects.requireNonNull(book, "book");
+        byte[] record = encode(PUT, student, book);
+        long sequence;
+        Book previous;
+        lock.lock();
+        try {
+            checkUsable();
+            previous = registry.put(student, book);
+            sequence = append(record);
+        } finally {
+            lock.unlock();
+        }
+        commit(sequence);
+        return previous;
+    }
+
+    public Book remove(StudentKey student) throws IOException {
+        byte[] record = encode(REMOVE, student, null);
+        long sequence;
+        Book removed;
+        lock.lock();
+        try {
+            checkUsable();
+            removed = registry.remove(student);
+            if (removed == null) {
+                return null;   // nothing changed, so nothing to log
+            }
+            sequence = append(record);
+        } finally {
+            lock.unlock();
+        }
+        commit(sequence);
+        return removed;
+    }
+
+    /**
+     * Waits until every update made so far is safely on disk (useful in ASYNC mode).
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            checkUsable();
+            waitUntilSynced(appendedSequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of fsyncs of the log so far.  Updates divided by syncs shows how
+     * many updates each group commit saved.
+     */
+    public long syncCount() {
+        lock.lock();
+        try {
+            return syncCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves all entries as a checkpoint, starts a new log, and deletes the older
+     * logs and checkpoints.  Updates wait only while the entries are copied; the
+     * checkpoint file is written while updates carry on.
+     */
+    public void checkpoint() throws IOException {
+        Map<StudentKey, Book> entries;
+        long checkpointGeneration;
+        lock.lock();
+        try {
+            checkUsable();
+            while (checkpointing) {
+                synced.awaitUninterruptibly();
+            }
+            checkpointing = true;
+            try {
+                syncAllLocked();
+                entries = registry.snapshot();
+                log.close();
+                checkpointGeneration = ++generation;
+                log = openLog(checkpointGeneration);
+                logBytes = 0;
+            } catch (IOException | RuntimeException e) {
+                checkpointing = false;
+                synced.signalAll();
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            Map<Student, Book> students = new HashMap<>(entries.size() * 4 / 3 + 1);
+            for (Map.Entry<StudentKey, Book> entry : entries.entrySet()) {
+                students.put(entry.getKey().toStudent(), entry.getValue());
+            }
+            MapSnapshot.writeFavouriteBooks(file(checkpointGeneration, SNAPSHOT_SUFFIX), students, true);
+            forceDirectory();
+            deleteOlderThan(checkpointGeneration);
+        } finally {
+            lock.lock();
+            try {
+                checkpointing = false;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Saves any remaining updates and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread checkpointer;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            checkpointer = checkpointThread;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            if (asyncSyncer != null) {
+                asyncSyncer.join();   // not interrupt(): that would close the FileChannel
+            }
+            if (checkpointer != null) {
+                checkpointer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            while (checkpointing) {
+                synced.awaitUninterruptibly();
+            }
+            try {
+                if (failure == null) {
+                    syncAllLocked();
+                }
+            } finally {
+                log.close();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // writing
+
+    private static byte[] encode(byte operation, StudentKey student, Book book) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);   // length and CRC, filled in below
+        out.writeInt(0);
+        out.writeByte(operation);
+        out.writeInt(student.getId());
+        out.writeUTF(student.getName());
+        if (operation == PUT) {
+            out.writeInt(book.getCode());
+            out.writeUTF(book.getTitle());
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, record.length - RECORD_HEADER_SIZE);
+        ByteBuffer.wrap(record).putInt(record.length - RECORD_HEADER_SIZE).putInt((int) crc.getValue());
+        return record;
+    }
+
+    /** Adds the record to the pending bytes (or, for SYNC_EACH, writes it now), and returns its sequence number. */
+    private long append(byte[] record) throws IOException {
+        if (pendingLength + record.length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + record.length));
+        }
+        System.arraycopy(record, 0, pending, pendingLength, record.length);
+        pendingLength += record.length;
+        logBytes += record.length;
+        long sequence = ++appendedSequence;
+        if (durability == Durability.SYNC_EACH) {
+            syncAllLocked();   // one write and fsync for this record, holding the lock
+        }
+        if (logBytes >= checkpointBytes && !checkpointing && checkpointThread == null) {
+            checkpointThread = Thread.ofPlatform().daemon().name("favourites-checkpoint")
+                    .start(this::checkpointInBackground);
+        }
+        return sequence;
+    }
+
+    /** Returns when the record is as durable as the mode promises. */
+    private void commit(long sequence) throws IOException {
+        if (durability != Durability.GROUP_COMMIT) {
+            return;   // SYNC_EACH already fsynced it; ASYNC leaves it to the background thread
+        }
+        lock.lock();
+        try {
+            waitUntilSynced(sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Group commit: if no thread is fsyncing, this thread writes and fsyncs all
+     * pending records (its own and those added by other threads), without
+     * holding the lock so that more records can be added meanwhile.  If another
+     * thread is fsyncing, wait for it; its fsync may include our record, and if
+     * not, one of the waiting threads becomes the next to fsync.
+     */
+    private void waitUntilSynced(long sequence) throws IOException {
+        while (syncedSequence < sequence) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (syncing) {
+                synced.awaitUninterruptibly();
+                continue;
+            }
+            syncing = true;
+            byte[] bytes = pending;
+            int length = pendingLength;
+            long upTo = appendedSequence;
+            pending = spare;
+            pendingLength = 0;
+            FileChannel channel = log;
+            lock.unlock();
+            IOException error = null;
+            try {
+                writeFully(channel, bytes, length);
+                channel.force(false);
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                lock.lock();
+            }
+            syncing = false;
+            spare = bytes;
+            if (error != null) {
+                failure = error;   // the log may now be incomplete, so stop accepting updates
+            } else {
+                syncedSequence = upTo;
+                syncCount++;
+            }
+            synced.signalAll();
+        }
+        if (failure != null && syncedSequence < sequence) {
+            throw failure;
+        }
+    }
+
+    /** Writes and fsyncs all pending records while holding the lock. */
+    private void syncAllLocked() throws IOException {
+        while (syncing) {
+            synced.awaitUninterruptibly();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (syncedSequence == appendedSequence) {
+            return;
+        }
+        try {
+            writeFully(log, pending, pendingLength);
+            log.force(false);
+        } catch (IOException e) {
+            failure = e;
+            synced.signalAll();
+            throw e;
+        }
+        pendingLength = 0;
+        syncedSequence = appendedSequence;
+        syncCount++;
+        synced.signalAll();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** The ASYNC background thread: runs until close() (sync() then throws IllegalStateException). */
+    private void syncPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(ASYNC_SYNC_MILLIS);
+                sync();
+            } catch (InterruptedException | IOException | IllegalStateException e) {
+                return;   // a failure is reported to the next update, and to close()
+            }
+        }
+    }
+
+    private void checkpointInBackground() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (IllegalStateException e) {
+            // closed meanwhile
+        } finally {
+            lock.lock();
+            try {
+                checkpointThread = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void checkUsable() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("DurableFavouriteBooks is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // files and recovery
+
+    private Path file(long fileGeneration, String suffix) {
+        return directory.resolve(PREFIX + fileGeneration + suffix);
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        FileChannel channel = FileChannel.open(file(logGeneration, LOG_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        forceDirectory();   // so the new file itself survives a crash
+        return channel;
+    }
+
+    /** Generations of the files with this suffix, oldest first. */
+    private TreeSet<Long> generations(String suffix) throws IOException {
+        TreeSet<Long> found = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    found.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Loads the newest checkpoint, then replays the logs written after it, in order.
+     */
+    private void recover() throws IOException {
+        TreeSet<Long> checkpoints = generations(SNAPSHOT_SUFFIX);
+        long start = checkpoints.isEmpty() ? 0 : checkpoints.last();
+        if (!checkpoints.isEmpty()) {
+            for (Map.Entry<Student, Book> entry : MapSnapshot.readFavouriteBooks(file(start, SNAPSHOT_SUFFIX)).entrySet()) {
+                registry.put(entry.getKey(), entry.getValue());
+            }
+        }
+        SortedSet<Long> logs = generations(LOG_SUFFIX).tailSet(start);
+        generation = logs.isEmpty() ? start : logs.last();
+        for (long logGeneration : logs) {
+            replay(file(logGeneration, LOG_SUFFIX), logGeneration == generation);
+        }
+        log = openLog(generation);
+        logBytes = log.size();
+    }
+
+    /**
+     * Applies the records in one log.  An incomplete or damaged record at the end
+     * of the newest log was being written during a crash: it is cut off.  Anywhere
+     * else it means the log is corrupt.
+     */
+    private void replay(Path file, boolean newest) throws IOException {
+        long goodLength = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] data = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;   // clean end of the log
+                }
+                try {
+                    int checksum = in.readInt();
+                    if (length < 1 || length > MAX_RECORD_SIZE) {
+                        throw new IOException("Bad record length " + length);
+                    }
+                    if (data.length < length) {
+                        data = new byte[Math.max(length, data.length * 2)];
+                    }
+                    in.readFully(data, 0, length);
+                    crc.reset();
+                    crc.update(data, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("Bad record checksum");
+                    }
+                } catch (IOException e) {
+                    if (!newest) {
+                        throw new IOException("Corrupt log " + file + " at byte " + goodLength + ": " + e.getMessage(), e);
+                    }
+                    break;   // torn write at the end of the newest log
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(data, 0, length)));
+                goodLength += RECORD_HEADER_SIZE + length;
+            }
+        }
+        if (goodLength < Files.size(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(goodLength);
+                channel.force(true);
+            }
+        }
+    }
+
+    private void apply(DataInputStream record) throws IOException {
+        byte operation = record.readByte();
+        StudentKey student = new StudentKey(record.readInt(), record.readUTF());
+        if (operation == PUT) {
+            int code = record.readInt();
+            registry.put(student, new Book(code, record.readUTF()));
+        } else if (operation == REMOVE) {
+            registry.remove(student);
+        } else {
+            throw new IOException("Unknown log operation " + operation);
+        }
+    }
+
+    private void deleteOlderThan(long keepGeneration) throws IOException {
+        for (long old : generations(LOG_SUFFIX).headSet(keepGeneration)) {
+            Files.deleteIfExists(file(old, LOG_SUFFIX));
+        }
+        for (long old : generations(SNAPSHOT_SUFFIX).headSet(keepGeneration)) {
+            Files.deleteIfExists(file(old, SNAPSHOT_SUFFIX));
+        }
+    }
+
+    /** fsyncs the directory, so that new and renamed files in it survive a crash (Linux). */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on every operating system; the files themselves are already fsynced
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * FavouriteBookRegistry - a thread-safe Map of Student => favourite Book.
+ * <p>
+ * map7() and map9() use a HashMap and a TreeMap, which must only be used by
+ * one thread at a time.  This registry can be read and updated by many
+ * threads at the same time:
+ * - Entries are kept in a ConcurrentHashMap.  get() takes no lock at all,
+ *   and updates only lock the one bucket they change (using CAS when the
+ *   bucket is empty), so threads updating different students do not wait
+ *   for each other.
+ * - A second, name-sorted copy of the entries is kept in a
+ *   ConcurrentSkipListMap (a thread-safe alternative to TreeMap), ordered by
+ *   name like ComparatorStudentName, and then by id so that two students with
+ *   the same name are both kept.
+ * - snapshot() returns a copy of all entries as they were at one moment.
+ *   Each update holds the shared (read) side of one of several "stripe" locks
+ *   (chosen by the student's hash code), which other updates can share, and
+ *   snapshot() briefly holds the exclusive (write) side of every stripe while it
+ *   copies.  Spreading updates over many stripes means updating threads do not
+ *   all compete for one lock.
+ * <p>
+ * Keys are immutable StudentKey objects, because a key that changes while it
+ * is in a map corrupts the map.  Methods that take a Student convert it with
+ * toKey().  Null books are not allowed (ConcurrentHashMap does not allow null values).
+ */
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+public class FavouriteBookRegistry {
+
+    /**
+     * Same order as ComparatorStudentName, with id used to order students with the same name.
+     */
+    public static final Comparator<StudentKey> BY_NAME =
+            Comparator.comparing(StudentKey::getName).thenComparingInt(StudentKey::getId);
+
+    private final ConcurrentHashMap<StudentKey, Book> favourites;
+    private final ConcurrentSkipListMap<StudentKey, Book> sortedByName = new ConcurrentSkipListMap<>(BY_NAME);
+    private final ReadWriteLock[] stripes;
+
+    public FavouriteBookRegistry() {
+        this(16);
+    }
+
+    public FavouriteBookRegistry(int expectedStudents) {
+        favourites = new ConcurrentHashMap<>(expectedStudents);
+        // a power of two, at least 4 stripes per CPU
+        int stripeCount = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        stripes = new ReadWriteLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public int size() {
+        return favourites.size();
+    }
+
+    /**
+     * Returns the favourite Book of the student, or null.  Never blocks.
+     */
+    public Book get(StudentKey student) {
+        return favourites.get(student);
+    }
+
+    public Book get(Student student) {
+        return get(student.toKey());
+    }
+
+    public boolean containsKey(StudentKey student) {
+        return favourites.containsKey(student);
+    }
+
+    /**
+     * Sets the favourite Book of the student, and returns the previous one (or null).
+     */
+    public Book put(StudentKey student, Book book) {
+        Objects.requireNonNull(book, "book");
+        Book[] previous = new Book[1];
+        update(student, (key, old) -> {
+            previous[0] = old;
+            return book;
+        });
+        return previous[0];
+    }
+
+    public Book put(Student student, Book book) {
+        return put(student.toKey(), book);
+    }
+
+    /**
+     * Removes the student, and returns their favourite Book (or null).
+     */
+    public Book remove(StudentKey student) {
+        Book[] previous = new Book[1];
+        update(student, (key, old) -> {
+            previous[0] = old;
+            return null;
+        });
+        return previous[0];
+    }
+
+    /**
+     * If the student has no favourite Book, sets it to chooseBook(student).
+     * This is atomic: chooseBook is called at most once, even if many
+     * threads call computeIfAbsent() for the same student at the same time.
+     * Returns the (existing or new) favourite Book.
+     */
+    public Book computeIfAbsent(StudentKey student, Function<? super StudentKey, ? extends Book> chooseBook) {
+        Book existing = favourites.get(student);
+        if (existing != null) {
+            return existing;  // fast path, no locking
+        }
+        return update(student, (key, old) -> old != null ? old : chooseBook.apply(key));
+    }
+
+    /**
+     * If the student has no favourite Book, sets it to book, otherwise sets it
+     * to combine(oldBook, book).  If combine returns null the student is removed.
+     * Atomic, like Map.merge().  Returns the new favourite Book (or null).
+     */
+    public Book merge(StudentKey student, Book book,
+                      BiFunction<? super Book, ? super Book, ? extends Book> combine) {
+        Objects.requireNonNull(book, "book");
+        return update(student, (key, old) -> old == null ? book : combine.apply(old, book));
+    }
+
+    /**
+     * Returns a copy of all entries, taken at a single point in time
+     * (no update is half-way through while the copy is made).
+     */
+    public Map<StudentKey, Book> snapshot() {
+        lockAllStripes();
+        try {
+            return Collections.unmodifiableMap(new HashMap<>(favourites));
+        } finally {
+            unlockAllStripes();
+        }
+    }
+
+    /**
+     * Returns a copy of all entries in name order, taken at a single point in time.
+     */
+    public NavigableMap<StudentKey, Book> sortedSnapshot() {
+        lockAllStripes();
+        try {
+            return Collections.unmodifiableNavigableMap(new TreeMap<>(sortedByName));
+        } finally {
+            unlockAllStripes();
+        }
+    }
+
+    /**
+     * Returns a live, read-only view of the entries in name order.
+     * Iterating it never blocks and never throws ConcurrentModificationException,
+     * but may or may not show updates made while iterating.  Use sortedSnapshot()
+     * when every entry must come from the same moment.
+     */
+    public NavigableMap<StudentKey, Book> sortedByName() {
+        return Collections.unmodifiableNavigableMap(sortedByName);
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * All updates go through here.  ConcurrentHashMap.compute() locks only the
+     * bucket for this student, so both maps are updated together before any
+     * other thread can update the same student.
+     */
+    private Book update(StudentKey student,
+                        BiFunction<? super StudentKey, ? super Book, ? extends Book> change) {
+        Objects.requireNonNull(student, "student");
+        Lock stripe = stripes[(student.hashCode() ^ (student.hashCode() >>> 16)) & (stripes.length - 1)].readLock();
+        stripe.lock();  // shared with other updates, excludes snapshot()
+        try {
+            return favourites.compute(student, (key, old) -> {
+                Book book = change.apply(key, old);
+                if (book == null) {
+                    sortedByName.remove(key);
+                } else if (book != old) {
+                    sortedByName.put(key, book);
+                }
+                return book;
+            });
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void lockAllStripes() {
+        for (ReadWriteLock stripe : stripes) {  // always in the same order, so snapshots cannot deadlock
+            stripe.writeLock().lock();
+        }
+    }
+
+    private void unlockAllStripes() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+}
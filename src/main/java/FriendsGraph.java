@@ -0,0 +1,212 @@
+/**
+ * FriendsGraph - a compact, read-only version of the name => list of friends map in map4().
+ * <p>
+ * In map4() each person has their own ArrayList of friends' names.  For
+ * millions of people with only a few friends each, most of the memory goes on
+ * the ArrayList objects and their unused spare capacity.
+ * <p>
+ * FriendsGraph stores the same information in three arrays:
+ * - each name is given an int id by a StringDictionary
+ * - targets[] holds the friend ids of person 0, then of person 1, and so on,
+ *   each person's friends sorted by id
+ * - offsets[p] is where person p's friends start in targets[], and
+ *   offsets[p + 1] is where they end
+ * This layout is called "Compressed Sparse Row" (CSR).
+ * <p>
+ * Because each person's friends are sorted, the mutual friends of two people
+ * can be found by walking both lists together once (like merging in merge sort).
+ * <p>
+ * Build a FriendsGraph with a Builder:
+ *   FriendsGraph graph = new FriendsGraph.Builder()
+ *           .addFriend("John", "Kylie")
+ *           .addFriend("John", "Donald")
+ *           .build();
+ * The Builder collects all the (person, friend) pairs and then places them in
+ * their final positions in one pass, instead of growing a list per person.
+ */
+
+import java.util.*;
+
+public class FriendsGraph {
+
+    private final StringDictionary names;
+    private final int[] offsets;   // length = number of people + 1
+    private final int[] targets;   // friend ids
+
+    private FriendsGraph(StringDictionary names, int[] offsets, int[] targets) {
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Builds a FriendsGraph from a map like the one in map4().
+     */
+    public static FriendsGraph from(Map<String, ? extends Collection<String>> friendsMap) {
+        Builder builder = new Builder();
+        for (Map.Entry<String, ? extends Collection<String>> entry : friendsMap.entrySet()) {
+            builder.addPerson(entry.getKey());
+            for (String friend : entry.getValue()) {
+                builder.addFriend(entry.getKey(), friend);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Number of distinct names (people and friends).
+     */
+    public int peopleCount() {
+        return names.size();
+    }
+
+    /**
+     * Total number of (person, friend) links.
+     */
+    public int friendshipCount() {
+        return targets.length;
+    }
+
+    public boolean containsPerson(String name) {
+        return names.idOf(name) >= 0;
+    }
+
+    public int friendCount(String name) {
+        int id = names.idOf(name);
+        return id < 0 ? 0 : offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * Returns the friends of name (sorted by when each name was first added),
+     * or an empty list if name is not in the graph.
+     */
+    public List<String> friendsOf(String name) {
+        int id = names.idOf(name);
+        if (id < 0) {
+            return Collections.emptyList();
+        }
+        List<String> friends = new ArrayList<>(offsets[id + 1] - offsets[id]);
+        for (int i = offsets[id]; i < offsets[id + 1]; i++) {
+            friends.add(names.get(targets[i]));
+        }
+        return friends;
+    }
+
+    public boolean isFriend(String name, String friend) {
+        int id = names.idOf(name);
+        int friendId = names.idOf(friend);
+        if (id < 0 || friendId < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(targets, offsets[id], offsets[id + 1], friendId) >= 0;
+    }
+
+    /**
+     * Returns the names that are in the friend lists of both name1 and name2.
+     */
+    public List<String> mutualFriends(String name1, String name2) {
+        int id1 = names.idOf(name1);
+        int id2 = names.idOf(name2);
+        if (id1 < 0 || id2 < 0) {
+            return Collections.emptyList();
+        }
+        List<String> mutual = new ArrayList<>();
+        int i = offsets[id1], end1 = offsets[id1 + 1];
+        int j = offsets[id2], end2 = offsets[id2 + 1];
+        while (i < end1 && j < end2) {   // both lists are sorted, so walk them together
+            if (targets[i] < targets[j]) {
+                i++;
+            } else if (targets[i] > targets[j]) {
+                j++;
+            } else {
+                mutual.add(names.get(targets[i]));
+                i++;
+                j++;
+            }
+        }
+        return mutual;
+    }
+
+    /**
+     * Approximate heap usage in bytes (not counting the name Strings, which are shared).
+     */
+    public long memoryBytes() {
+        return 16 + 4L * offsets.length + 16 + 4L * targets.length
+                + 16 + 4L * names.size() * 3;  // dictionary: strings[] plus a hash table of twice its size
+    }
+
+    /**
+     * Collects (person, friend) pairs, then builds the compact graph in one go.
+     * A Builder should not be used again after build().
+     */
+    public static class Builder {
+        private final StringDictionary names = new StringDictionary();
+        private int[] from = new int[64];
+        private int[] to = new int[64];
+        private int count;
+
+        /**
+         * Adds a person with no friends (yet).
+         */
+        public Builder addPerson(String name) {
+            names.add(name);
+            return this;
+        }
+
+        public Builder addFriend(String name, String friend) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+            }
+            from[count] = names.add(name);
+            to[count] = names.add(friend);
+            count++;
+            return this;
+        }
+
+        public Builder addFriends(String name, Collection<String> friends) {
+            addPerson(name);
+            for (String friend : friends) {
+                addFriend(name, friend);
+            }
+            return this;
+        }
+
+        public FriendsGraph build() {
+            int people = names.size();
+
+            // 1. count the friends of each person, then turn the counts into start offsets
+            int[] offsets = new int[people + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int p = 0; p < people; p++) {
+                offsets[p + 1] += offsets[p];
+            }
+
+            // 2. place each friend id at the next free position of its person
+            int[] targets = new int[count];
+            int[] next = Arrays.copyOf(offsets, people);
+            for (int i = 0; i < count; i++) {
+                targets[next[from[i]]++] = to[i];
+            }
+
+            // 3. sort each person's friends and remove duplicates, packing the array
+            int write = 0;
+            for (int p = 0; p < people; p++) {
+                int start = offsets[p];
+                int end = offsets[p + 1];
+                Arrays.sort(targets, start, end);
+                offsets[p] = write;
+                for (int i = start; i < end; i++) {
+                    if (i == start || targets[i] != targets[i - 1]) {
+                        targets[write++] = targets[i];
+                    }
+                }
+            }
+            offsets[people] = write;
+
+            return new FriendsGraph(names, offsets, write == count ? targets : Arrays.copyOf(targets, write));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * HashMixers - strong hash functions for int, long and String keys, and HashStrategies built from them.
+ * <p>
+ * Objects.hash(id, name) works out 31 * (31 + id) + name.hashCode(), and
+ * String.hashCode() is also "multiply by 31 and add".  These are cheap, but
+ * keys that differ only a little get hash codes that differ only a little:
+ * students 1001, 1002, 1003 get hash codes 31 apart, and "Student 12" and
+ * "Student 21" differ by just 279.  A HashMap only uses the low bits of the
+ * hash, so such keys can crowd into a few buckets.
+ * <p>
+ * A "mixer" fixes this: every input bit should change about half of the
+ * output bits ("avalanche"), so similar keys get unrelated hash codes.  The
+ * mixers here follow two well-known fast hash functions:
+ * - wyhash: multiply two 64-bit numbers into a 128-bit result, and XOR its
+ *   high and low halves together (wyMix).  One multiply mixes every bit.
+ * - xxHash: multiply by large odd constants and XOR in shifted copies of the
+ *   value (xxAvalanche), and rotate and multiply each input word into the total.
+ * Strings are hashed four chars (64 bits) at a time.
+ * <p>
+ * An int key only has 2^32 values, so its hash can be a "bijection": every
+ * step (multiply by an odd number, XOR in a right-shifted copy, add, rotate)
+ * can be undone, so two different keys never get the same hash code.
+ * mix(int) (murmur3's finalizer), xxHash(int) (xxHash32 of 4 bytes) and the
+ * cheaper fibonacci(int) work like that.  Folding a 64-bit wyMix result down to an int does not: some
+ * different keys end up with the same hash.
+ * <p>
+ * HashQualityAnalyzer measures how well these, and the keys' own hashCode(), spread real keys.
+ */
+
+import java.util.Objects;
+
+public final class HashMixers {
+
+    // wyhash constants
+    private static final long WY_P0 = 0xa0761d6478bd642fL;
+    private static final long WY_P1 = 0xe7037ed1a0b428dbL;
+    private static final long WY_P2 = 0x8ebc6af09c88c6e3L;
+    private static final long WY_P3 = 0x589965cc75374cc3L;
+
+    // xxHash64 constants
+    private static final long XX_P1 = 0x9E3779B185EBCA87L;
+    private static final long XX_P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long XX_P3 = 0x165667B19E3779F9L;
+    private static final long XX_P4 = 0x85EBCA77C2B2AE63L;
+    private static final long XX_P5 = 0x27D4EB2F165667C5L;
+
+    // xxHash32 constants
+    private static final int XX32_P2 = 0x85EBCA77;
+    private static final int XX32_P3 = 0xC2B2AE3D;
+    private static final int XX32_P4 = 0x27D4EB2F;
+    private static final int XX32_P5 = 0x165667B1;
+
+    private HashMixers() {
+    }
+
+    // ---------------------------------------------------------------------
+    // wyhash style
+
+    /** The 128-bit product of a and b, with its two halves XORed together. */
+    public static long wyMix(long a, long b) {
+        return a * b ^ Math.unsignedMultiplyHigh(a, b);
+    }
+
+    /** Hash of two 64-bit values (for example two fields of a key). */
+    public static long wyHash(long a, long b) {
+        return wyMix(wyMix(a ^ WY_P0, b ^ WY_P1), WY_P2);
+    }
+
+    public static long wyHash(CharSequence s, long seed) {
+        int length = s.length();
+        long h = seed ^ WY_P0;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            h = wyMix(chars(s, i, 4) ^ WY_P1, h ^ WY_P2);
+        }
+        return wyMix(chars(s, i, length - i) ^ WY_P3, h ^ length);
+    }
+
+    // ---------------------------------------------------------------------
+    // xxHash style
+
+    /** xxHash64's final step: spreads every bit of h over the whole result. */
+    public static long xxAvalanche(long h) {
+        h ^= h >>> 33;
+        h *= XX_P2;
+        h ^= h >>> 29;
+        h *= XX_P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /** Adds one 64-bit input to the running hash h. */
+    private static long xxRound(long h, long input) {
+        h ^= Long.rotateLeft(input * XX_P2, 31) * XX_P1;
+        return Long.rotateLeft(h, 27) * XX_P1 + XX_P4;
+    }
+
+    public static long xxHash(long a, long b) {
+        return xxAvalanche(xxRound(xxRound(XX_P5 + 16, a), b));
+    }
+
+    public static long xxHash(CharSequence s, long seed) {
+        int length = s.length();
+        long h = seed + XX_P5 + 2L * length;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            h = xxRound(h, chars(s, i, 4));
+        }
+        if (i < length) {
+            h = xxRound(h, chars(s, i, length - i));
+        }
+        return xxAvalanche(h);
+    }
+
+    /** xxHash32 of the 4 bytes of key (seed 0).  Different keys always get different hashes. */
+    public static int xxHash(int key) {
+        int h = XX32_P5 + 4;
+        h += key * XX32_P3;
+        h = Integer.rotateLeft(h, 17) * XX32_P4;
+        h ^= h >>> 15;
+        h *= XX32_P2;
+        h ^= h >>> 13;
+        h *= XX32_P3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** Folds a 64-bit hash into an int, keeping the influence of all 64 bits. */
+    public static int fold(long h) {
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * A well-mixed int hash of an int key: murmur3's finalizer (fmix32).
+     * Different keys always get different hashes.
+     */
+    public static int mix(int key) {
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Fibonacci hashing: multiplies by 2^32 divided by the golden ratio, and XORs
+     * the high half into the low half.  Weaker than mix(), but one multiply
+     * spreads sequential keys (book codes) evenly over a power-of-two table.
+     * Different keys always get different hashes.  MappedBookCatalogue stores
+     * books at slots chosen with it, so it must never change.
+     */
+    public static int fibonacci(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** count (up to 4) chars from position i, packed into a long. */
+    private static long chars(CharSequence s, int i, int count) {
+        long packed = 0;
+        for (int c = 0; c < count; c++) {
+            packed |= (long) s.charAt(i + c) << (16 * c);
+        }
+        return packed;
+    }
+
+    // ---------------------------------------------------------------------
+    // strategies for the demo keys
+
+    /** Student's own hashCode(): Objects.hash(id, name). */
+    public static final HashStrategy<Student> STUDENT_OBJECTS_HASH = HashStrategy.natural();
+
+    public static final HashStrategy<Student> STUDENT_WYHASH = HashStrategy.of(
+            student -> fold(wyHash(student.getId(), student.getName() == null ? 0 : wyHash(student.getName(), 0))),
+            HashMixers::sameStudent);
+
+    public static final HashStrategy<Student> STUDENT_XXHASH = HashStrategy.of(
+            student -> fold(xxHash(student.getId(), student.getName() == null ? 0 : xxHash(student.getName(), 0))),
+            HashMixers::sameStudent);
+
+    /** Books are the same key if they have the same code (the code is unique), as in map3(). */
+    public static final HashStrategy<Book> BOOK_BY_CODE = HashStrategy.of(
+            Book::getCode,           // like Integer.hashCode(): the code itself
+            (a, b) -> a.getCode() == b.getCode());
+
+    public static final HashStrategy<Book> BOOK_BY_CODE_MURMUR = HashStrategy.of(
+            book -> mix(book.getCode()),
+            (a, b) -> a.getCode() == b.getCode());
+
+    public static final HashStrategy<Book> BOOK_BY_CODE_XXHASH = HashStrategy.of(
+            book -> xxHash(book.getCode()),
+            (a, b) -> a.getCode() == b.getCode());
+
+    private static boolean sameStudent(Student a, Student b) {
+        return a.getId() == b.getId() && Objects.equals(a.getName(), b.getName());
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * HashQualityAnalyzer - measures how well a hash function spreads a real set of keys.
+ * <p>
+ * A hash map is only fast if its keys are spread evenly over the buckets.  For
+ * a list of keys and a HashStrategy, the analyzer reports:
+ * - distinct hash codes: keys with the same full hash code always collide,
+ *   whatever the table size
+ * - bucket distribution: the keys are placed in a simulated HashMap table
+ *   (bucket (h ^ (h >>> 16)) & (tableSize - 1), as HashMap and IncrementalHashMap
+ *   do), and the chain lengths are reported with BucketStats
+ * - avalanche: for a sample of keys, each input bit is flipped in turn (with
+ *   KeyBits) and we count how often each of the 32 output bits changes.  A good
+ *   hash changes every output bit half of the time (flip rate 0.5).  The
+ *   "worst bias" is how far the worst input/output bit pair is from 0.5: near 0
+ *   is good (random noise is about 0.03 with the default sample), 0.5 means some
+ *   output bit never (or always) changes when that input bit changes.
+ * <p>
+ * main() compares the keys' own hash codes with the strategies in HashMixers
+ * (wyhash and xxHash style for students, murmur3 and xxHash32 for book codes),
+ * for students and books like the ones in the demos.
+ * Usage: HashQualityAnalyzer [keyCount]   (default 100000)
+ * <p>
+ * Example:
+ *   HashQualityAnalyzer.Report report = HashQualityAnalyzer.analyze("wyhash", students,
+ *           HashMixers.STUDENT_WYHASH, HashQualityAnalyzer.STUDENT_BITS);
+ *   System.out.println(report);
+ */
+
+import java.util.*;
+
+public class HashQualityAnalyzer {
+
+    public static final int DEFAULT_AVALANCHE_SAMPLES = 2000;
+    private static final int HASH_BITS = 32;
+
+    /**
+     * The bits of a key that avalanche testing flips, one at a time.
+     */
+    public interface KeyBits<T> {
+        int inputBits();
+
+        /** A copy of the key with input bit number bit (0 .. inputBits() - 1) flipped. */
+        T flip(T key, int bit);
+    }
+
+    /** The 32 bits of the id, then the 16 bits of the last char of the name (a "similar name"). */
+    public static final KeyBits<Student> STUDENT_BITS = new KeyBits<>() {
+        @Override
+        public int inputBits() {
+            return 48;
+        }
+
+        @Override
+        public Student flip(Student student, int bit) {
+            if (bit < 32) {
+                return new Student(student.getId() ^ (1 << bit), student.getName());
+            }
+            String name = student.getName();
+            if (name == null || name.isEmpty()) {
+                return new Student(student.getId(), String.valueOf((char) (1 << (bit - 32))));
+            }
+            char last = (char) (name.charAt(name.length() - 1) ^ (1 << (bit - 32)));
+            return new Student(student.getId(), name.substring(0, name.length() - 1) + last);
+        }
+    };
+
+    /** The 32 bits of the code. */
+    public static final KeyBits<Book> BOOK_BITS = new KeyBits<>() {
+        @Override
+        public int inputBits() {
+            return 32;
+        }
+
+        @Override
+        public Book flip(Book book, int bit) {
+            return new Book(book.getCode() ^ (1 << bit), book.getTitle());
+        }
+    };
+
+    private static final String[] STUDENT_STRATEGY_NAMES = {"own hashCode", "wyhash", "xxhash"};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        List<Student> numbered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            numbered.add(new Student(1000 + i, "Student " + (1000 + i)));
+        }
+        printComparison("Students 1000.. named \"Student <id>\"", numbered, STUDENT_BITS, STUDENT_STRATEGY_NAMES,
+                HashMixers.STUDENT_OBJECTS_HASH, HashMixers.STUDENT_WYHASH, HashMixers.STUDENT_XXHASH);
+
+        String[] firstNames = {"Tom", "Zoe", "Adam", "Anne", "John", "Alice"};
+        String[] lastNames = {"Malone", "Salanda", "Ant", "Kelly", "Byrne", "Walsh"};
+        List<Student> similar = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // only 36 different names, so many students share a name
+            String name = firstNames[i % firstNames.length] + " " + lastNames[(i / firstNames.length) % lastNames.length];
+            similar.add(new Student(1000 + i, name));
+        }
+        printComparison("Students 1000.. with 36 common names", similar, STUDENT_BITS, STUDENT_STRATEGY_NAMES,
+                HashMixers.STUDENT_OBJECTS_HASH, HashMixers.STUDENT_WYHASH, HashMixers.STUDENT_XXHASH);
+
+        List<Book> strided = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strided.add(new Book(30004 + i * 1000, "Title " + i));   // codes given out in blocks of 1000
+        }
+        printComparison("Books with codes 1000 apart (30004, 31004, ...)", strided, BOOK_BITS,
+                new String[]{"own code", "murmur3", "xxhash32"},
+                HashMixers.BOOK_BY_CODE, HashMixers.BOOK_BY_CODE_MURMUR, HashMixers.BOOK_BY_CODE_XXHASH);
+    }
+
+    @SafeVarargs
+    private static <T> void printComparison(String population, List<T> keys, KeyBits<T> bits, String[] names,
+                                            HashStrategy<? super T>... strategies) {
+        System.out.println(population + ":");
+        for (int i = 0; i < strategies.length; i++) {
+            System.out.println("  " + analyze(i < names.length ? names[i] : "strategy " + i, keys, strategies[i], bits));
+        }
+    }
+
+    /**
+     * Analyzes the keys in a table of the size a HashMap holding them would have.
+     */
+    public static <T> Report analyze(String name, List<? extends T> keys, HashStrategy<? super T> strategy,
+                                     KeyBits<T> bits) {
+        return analyze(name, keys, strategy, BucketStats.hashMapTableSize(keys.size()),
+                bits, DEFAULT_AVALANCHE_SAMPLES);
+    }
+
+    /**
+     * @param tableSize number of buckets (rounded up to a power of two, as HashMap does)
+     * @param bits      how to flip the bits of a key, or null to skip the avalanche test
+     * @param samples   how many keys (spread over the list) the avalanche test uses
+     */
+    public static <T> Report analyze(String name, List<? extends T> keys, HashStrategy<? super T> strategy,
+                                     int tableSize, KeyBits<T> bits, int samples) {
+        int n = Integer.highestOneBit(Math.max(1, tableSize - 1)) << 1;
+        int[] chainLengths = new int[n];
+        int[] hashes = new int[keys.size()];
+        int k = 0;
+        for (T key : keys) {
+            int h = strategy.hash(key);
+            hashes[k++] = h;
+            chainLengths[(h ^ (h >>> 16)) & (n - 1)]++;
+        }
+        Arrays.sort(hashes);
+        int distinct = hashes.length == 0 ? 0 : 1;
+        for (int i = 1; i < hashes.length; i++) {
+            if (hashes[i] != hashes[i - 1]) {
+                distinct++;
+            }
+        }
+
+        Report report = new Report(name, distinct, BucketStats.ofChainLengths(chainLengths));
+        if (bits != null && !keys.isEmpty() && samples > 0) {
+            avalanche(report, keys, strategy, bits, samples);
+        }
+        return report;
+    }
+
+    private static <T> void avalanche(Report report, List<? extends T> keys, HashStrategy<? super T> strategy,
+                                      KeyBits<T> bits, int samples) {
+        int inputBits = bits.inputBits();
+        long[][] flips = new long[inputBits][HASH_BITS];   // flips[in][out]: times output bit out changed
+        int used = Math.min(samples, keys.size());
+        for (int s = 0; s < used; s++) {
+            T key = keys.get((int) ((long) s * keys.size() / used));
+            int h = strategy.hash(key);
+            for (int in = 0; in < inputBits; in++) {
+                int changed = h ^ strategy.hash(bits.flip(key, in));
+                for (int out = 0; out < HASH_BITS; out++) {
+                    flips[in][out] += (changed >>> out) & 1;
+                }
+            }
+        }
+        double total = 0;
+        double worstBias = 0;
+        for (long[] row : flips) {
+            for (long count : row) {
+                double rate = (double) count / used;
+                total += rate;
+                worstBias = Math.max(worstBias, Math.abs(rate - 0.5));
+            }
+        }
+        report.avalancheSamples = used;
+        report.meanFlipRate = total / (inputBits * HASH_BITS);
+        report.worstBias = worstBias;
+    }
+
+    public static class Report {
+        private final String name;
+        private final int distinctHashes;
+        private final BucketStats buckets;
+        private int avalancheSamples;
+        private double meanFlipRate = Double.NaN;
+        private double worstBias = Double.NaN;
+
+        Report(String name, int distinctHashes, BucketStats buckets) {
+            this.name = name;
+            this.distinctHashes = distinctHashes;
+            this.buckets = buckets;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public int distinctHashes() {
+            return distinctHashes;
+        }
+
+        public BucketStats buckets() {
+            return buckets;
+        }
+
+        /** Average chance that an output bit changes when one input bit changes (ideal 0.5). */
+        public double meanFlipRate() {
+            return meanFlipRate;
+        }
+
+        /** Largest distance from 0.5 of any input bit/output bit flip rate (ideal near 0). */
+        public double worstBias() {
+            return worstBias;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": distinctHashes=" + distinctHashes
+                    + ", meanFlipRate=" + String.format(Locale.ROOT, "%.3f", meanFlipRate)
+                    + ", worstBias=" + String.format(Locale.ROOT, "%.3f", worstBias)
+                    + "\n    " + buckets;
+        }
+
+        public String toJson() {
+            return "{\"name\":\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+                    + ",\"distinctHashes\":" + distinctHashes
+                    + ",\"avalancheSamples\":" + avalancheSamples
+                    + ",\"meanFlipRate\":" + (Double.isNaN(meanFlipRate) ? "null" : String.format(Locale.ROOT, "%.4f", meanFlipRate))
+                    + ",\"worstBias\":" + (Double.isNaN(worstBias) ? "null" : String.format(Locale.ROOT, "%.4f", worstBias))
+                    + ",\"buckets\":" + buckets.toJson()
+                    + "}";
+        }
+    }
+}
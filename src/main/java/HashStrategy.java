@@ -0,0 +1,70 @@
+/**
+ * HashStrategy - how a hash map should hash and compare its keys, supplied from outside the key class.
+ * <p>
+ * A HashMap always calls key.hashCode() and key.equals().  That is a problem when:
+ * - the key class has no hashCode()/equals() at all (Book), so two Books with
+ *   the same code are different keys
+ * - the key class has a weak hashCode() (Student uses Objects.hash(id, name),
+ *   which gives similar students similar hash codes), and we cannot or do not
+ *   want to change the class
+ * A map that takes a HashStrategy (see IncrementalHashMap) calls the strategy
+ * instead, so a better hash can be used without touching the key class.
+ * <p>
+ * hash() and equals() must be consistent, just like hashCode() and equals():
+ * keys that are equal must have the same hash.  Maps do not pass null keys to a strategy.
+ * <p>
+ * Example:
+ *   HashStrategy<Book> byCode = HashStrategy.of(book -> HashMixers.mix(book.getCode()),
+ *                                               (a, b) -> a.getCode() == b.getCode());
+ *   Map<Book, String> reviews = new IncrementalHashMap<>(0, byCode);
+ * Ready-made strategies for the demo keys are in HashMixers.
+ */
+
+import java.util.function.BiPredicate;
+import java.util.function.ToIntFunction;
+
+public interface HashStrategy<T> {
+
+    int hash(T key);
+
+    boolean equals(T a, T b);
+
+    /**
+     * The key's own hashCode() and equals(), as a HashMap uses.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> HashStrategy<T> natural() {
+        return (HashStrategy<T>) Natural.INSTANCE;
+    }
+
+    static <T> HashStrategy<T> of(ToIntFunction<? super T> hash, BiPredicate<? super T, ? super T> equals) {
+        return new HashStrategy<>() {
+            @Override
+            public int hash(T key) {
+                return hash.applyAsInt(key);
+            }
+
+            @Override
+            public boolean equals(T a, T b) {
+                return equals.test(a, b);
+            }
+        };
+    }
+
+    final class Natural implements HashStrategy<Object> {
+        private static final Natural INSTANCE = new Natural();
+
+        private Natural() {
+        }
+
+        @Override
+        public int hash(Object key) {
+            return key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object a, Object b) {
+            return a.equals(b);
+        }
+    }
+}
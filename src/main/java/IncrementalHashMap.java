@@ -0,0 +1,449 @@
+/**
+ * IncrementalHashMap - a hash map that grows a little at a time, so that no put() is ever slow.
+ * <p>
+ * A HashMap keeps its entries in a table of "buckets".  When the map gets too
+ * full, HashMap makes a table twice the size and moves every entry into it,
+ * all inside one put().  With millions of entries that one put() takes
+ * milliseconds, while all the others take nanoseconds.
+ * <p>
+ * IncrementalHashMap (like the hash tables in Redis) keeps both tables while it grows:
+ * - the new, bigger table is created, but entries are not moved yet
+ * - each put() that adds a key and each remove() that removes one then moves
+ *   the entries of a few old buckets (MIGRATE_BUCKETS) into the new table.
+ *   Replacing a value or removing a missing key moves nothing, so (as with
+ *   HashMap) it can be done while iterating
+ * - the old table is dropped when its last bucket has been moved
+ * The move is finished long before the new table itself gets full, and get()
+ * always looks in just one of the two tables (old buckets that have been moved
+ * are empty, so it knows which one to use).
+ * Creating the bigger table still takes some time (Java clears the new array),
+ * but much less than moving millions of entries.
+ * <p>
+ * If you know roughly how many entries the map will hold, pass it to the
+ * constructor or to ensureCapacity(), and the map will not need to grow at all.
+ * <p>
+ * Like HashMap, it allows null keys and values, and it is not thread-safe.
+ * <p>
+ * Keys are hashed and compared with their own hashCode() and equals(), or with
+ * a HashStrategy passed to the constructor.  A strategy lets keys without
+ * hashCode()/equals() (like Book), or with a weak hashCode(), be used as keys
+ * without changing their class (see HashMixers).
+ * <p>
+ * Example (the map1() pattern):
+ *   Map<String, String> map = new IncrementalHashMap<>(1_000_000);  // expect about 1 million entries
+ *   map.put("John", "Alien");
+ */
+
+import java.util.*;
+
+public class IncrementalHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIGRATE_BUCKETS = 8;   // old buckets moved by each put() or remove() that changes the size
+
+    private Node<K, V>[] table;
+    private Node<K, V>[] oldTable;   // not null while the map is growing
+    private int migrateIndex;        // old buckets below this index have been moved to table
+    private int size;
+    private int threshold;           // grow when size goes above this
+    private int modCount;            // changes that would upset an iterator
+    private int resizeCount;
+    private final HashStrategy<? super K> strategy;
+
+    public IncrementalHashMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedSize how many entries the map is expected to hold
+     */
+    public IncrementalHashMap(int expectedSize) {
+        this(expectedSize, HashStrategy.natural());
+    }
+
+    /**
+     * @param expectedSize how many entries the map is expected to hold
+     * @param strategy     hashes and compares the keys, instead of their hashCode() and equals()
+     */
+    public IncrementalHashMap(int expectedSize, HashStrategy<? super K> strategy) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+        }
+        this.strategy = Objects.requireNonNull(strategy, "strategy");
+        setTable(newTable(capacityFor(expectedSize)));
+    }
+
+    /**
+     * Makes sure the map can hold expectedSize entries without growing again.
+     * If the table has to get bigger, the entries are moved a few at a time, as usual.
+     */
+    public void ensureCapacity(int expectedSize) {
+        int capacity = capacityFor(expectedSize);
+        if (capacity > table.length) {
+            startResize(capacity);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = findNode(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = hash(key);
+        Node<K, V>[] tab = tableFor(hash);
+        int index = hash & (tab.length - 1);
+        for (Node<K, V> node = tab[index]; node != null; node = node.next) {
+            if (node.hash == hash && sameKey(node.key, key)) {
+                V old = node.value;
+                node.value = value;
+                return old;
+            }
+        }
+        tab[index] = new Node<>(hash, key, value, tab[index]);
+        size++;
+        modCount++;
+        migrate();   // only after a structural change: replacing a value must not upset iterators
+        if (size > threshold) {
+            grow();
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K, V> node = removeNode(key);
+        if (node == null) {
+            return null;
+        }
+        migrate();
+        return node.value;
+    }
+
+    @Override
+    public void clear() {
+        if (oldTable != null) {
+            oldTable = null;
+            table = newTable(table.length);
+        } else {
+            Arrays.fill(table, null);
+        }
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of buckets in the (new) table.
+     */
+    public int capacity() {
+        return table.length;
+    }
+
+    /**
+     * True while entries are still being moved from the old table to the new one.
+     */
+    public boolean isResizing() {
+        return oldTable != null;
+    }
+
+    /**
+     * How many times the table has grown.
+     */
+    public int resizeCount() {
+        return resizeCount;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Map.Entry<?, ?> entry)) {
+                    return false;
+                }
+                Node<K, V> node = findNode(entry.getKey());
+                return node != null && Objects.equals(node.value, entry.getValue());
+            }
+
+            @Override
+            public void clear() {
+                IncrementalHashMap.this.clear();
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------
+
+    /** A key of the wrong type makes the strategy throw ClassCastException (a HashMap would just not find it). */
+    @SuppressWarnings("unchecked")
+    private int hash(Object key) {
+        int h = key == null ? 0 : strategy.hash((K) key);
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean sameKey(K nodeKey, Object key) {
+        return nodeKey == key || (nodeKey != null && key != null && strategy.equals(nodeKey, (K) key));
+    }
+
+    /**
+     * The table that holds the bucket for hash: the old table if that bucket
+     * has not been moved yet, otherwise the new one.
+     */
+    private Node<K, V>[] tableFor(int hash) {
+        Node<K, V>[] old = oldTable;
+        if (old != null && (hash & (old.length - 1)) >= migrateIndex) {
+            return old;
+        }
+        return table;
+    }
+
+    private Node<K, V> findNode(Object key) {
+        int hash = hash(key);
+        Node<K, V>[] tab = tableFor(hash);
+        for (Node<K, V> node = tab[hash & (tab.length - 1)]; node != null; node = node.next) {
+            if (node.hash == hash && sameKey(node.key, key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private Node<K, V> removeNode(Object key) {
+        int hash = hash(key);
+        Node<K, V>[] tab = tableFor(hash);
+        int index = hash & (tab.length - 1);
+        Node<K, V> previous = null;
+        for (Node<K, V> node = tab[index]; node != null; previous = node, node = node.next) {
+            if (node.hash == hash && sameKey(node.key, key)) {
+                if (previous == null) {
+                    tab[index] = node.next;
+                } else {
+                    previous.next = node.next;
+                }
+                size--;
+                modCount++;
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private void grow() {
+        if (table.length >= MAXIMUM_CAPACITY) {
+            threshold = Integer.MAX_VALUE;
+            return;
+        }
+        startResize(table.length * 2);
+    }
+
+    private void startResize(int capacity) {
+        if (oldTable != null) {
+            // still moving the last resize (only after a big ensureCapacity() or many removes): finish it
+            finishMigration();
+        }
+        resizeCount++;
+        oldTable = table;
+        migrateIndex = 0;
+        setTable(newTable(capacity));
+        migrate();
+    }
+
+    /** Moves up to MIGRATE_BUCKETS old buckets into the new table. */
+    private void migrate() {
+        if (oldTable != null) {
+            moveBuckets(MIGRATE_BUCKETS);
+        }
+    }
+
+    private void finishMigration() {
+        moveBuckets(oldTable.length - migrateIndex);
+    }
+
+    private void moveBuckets(int count) {
+        Node<K, V>[] old = oldTable;
+        Node<K, V>[] tab = table;
+        int mask = tab.length - 1;
+        int end = Math.min(old.length, migrateIndex + count);
+        for (int i = migrateIndex; i < end; i++) {
+            Node<K, V> node = old[i];
+            old[i] = null;
+            while (node != null) {
+                Node<K, V> next = node.next;
+                int index = node.hash & mask;
+                node.next = tab[index];
+                tab[index] = node;
+                node = next;
+            }
+        }
+        migrateIndex = end;
+        modCount++;
+        if (end == old.length) {
+            oldTable = null;
+        }
+    }
+
+    private void setTable(Node<K, V>[] newTable) {
+        table = newTable;
+        threshold = newTable.length >= MAXIMUM_CAPACITY ? Integer.MAX_VALUE : (int) (newTable.length * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(expectedSize / (double) LOAD_FACTOR);
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < needed && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <K, V> Node<K, V>[] newTable(int capacity) {
+        return (Node<K, V>[]) new Node[capacity];
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        final int hash;
+        final K key;
+        V value;
+        Node<K, V> next;
+
+        Node(int hash, K key, V value, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Map.Entry<?, ?> e && Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Visits the old buckets that have not been moved yet, then the new table.
+     * The iterator never moves buckets itself, so it sees each entry exactly once.
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private Node<K, V>[] tab;
+        private int index;
+        private Node<K, V> next;
+        private Node<K, V> lastReturned;
+        private int expectedModCount = modCount;
+
+        EntryIterator() {
+            if (oldTable != null) {
+                tab = oldTable;
+                index = migrateIndex;
+            } else {
+                tab = table;
+            }
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next;
+            next = next.next;
+            if (next == null) {
+                advance();
+            }
+            return lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeNode(lastReturned.key);   // does not move any buckets
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        /** Moves next to the first entry of the next non-empty bucket (or null at the end). */
+        private void advance() {
+            while (true) {
+                while (index < tab.length) {
+                    Node<K, V> node = tab[index++];
+                    if (node != null) {
+                        next = node;
+                        return;
+                    }
+                }
+                if (tab == table) {
+                    next = null;
+                    return;
+                }
+                tab = table;
+                index = 0;
+            }
+        }
+    }
+}
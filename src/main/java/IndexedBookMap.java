@@ -0,0 +1,214 @@
+/**
+ * IndexedBookMap - a Map of code => Book that can also find Books by title quickly.
+ * <p>
+ * In a HashMap<Integer, Book> the only fast lookup is by code.  Finding books
+ * by title, as getShortTitledBooks() does, means looking at every Book in the map.
+ * <p>
+ * IndexedBookMap keeps the Books in a HashMap as usual, plus two "secondary
+ * indexes", which are updated by every put() and remove():
+ * - a TreeMap of title => Books with that title.  The TreeMap keeps titles
+ *   in sorted order, so all the titles starting with "Wh" are next to each
+ *   other: we find the first one in O(log n) and read on until a title no
+ *   longer starts with "Wh".
+ * - a TreeMap of title length => Books with titles of that length.
+ *   "All titles of 4 characters or less" is then just the first few lengths.
+ * So these queries only look at the Books they return (plus O(log n) to find
+ * them), however many Books are in the map.
+ * <p>
+ * The indexes cost extra memory and make put() and remove() a little slower,
+ * so it is worth it only if books are often looked up by title.
+ * Null keys and Books are not allowed.  Not thread-safe.
+ * <p>
+ * Example:
+ *   IndexedBookMap bookMap = new IndexedBookMap();
+ *   bookMap.put(55523, new Book(55523, "White Teeth"));
+ *   List<Book> books = bookMap.withTitlePrefix("Wh");
+ */
+
+import java.util.*;
+
+public class IndexedBookMap extends AbstractMap<Integer, Book> {
+
+    private final Map<Integer, Book> books = new HashMap<>();
+    private final TreeMap<String, Map<Integer, Book>> byTitle = new TreeMap<>();   // title => (code => Book), as added
+    private final TreeMap<Integer, Map<Integer, Book>> byTitleLength = new TreeMap<>();   // length => (code => Book)
+
+    public IndexedBookMap() {
+    }
+
+    /**
+     * Copies all entries of bookMap into a new IndexedBookMap.
+     */
+    public static IndexedBookMap from(Map<Integer, Book> bookMap) {
+        IndexedBookMap indexed = new IndexedBookMap();
+        indexed.putAll(bookMap);
+        return indexed;
+    }
+
+    @Override
+    public int size() {
+        return books.size();
+    }
+
+    @Override
+    public Book get(Object key) {
+        return books.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return books.containsKey(key);
+    }
+
+    @Override
+    public Book put(Integer code, Book book) {
+        Objects.requireNonNull(code, "code");
+        Objects.requireNonNull(book, "book");
+        Book previous = books.put(code, book);
+        if (previous != null) {
+            unindex(code, previous);
+        }
+        index(code, book);
+        return previous;
+    }
+
+    @Override
+    public Book remove(Object key) {
+        Book removed = books.remove(key);
+        if (removed != null) {
+            unindex((Integer) key, removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        books.clear();
+        byTitle.clear();
+        byTitleLength.clear();
+    }
+
+    // ---------------------------------------------------------------------
+    // title queries
+
+    /**
+     * Returns the Books whose title is exactly title.
+     */
+    public List<Book> withTitle(String title) {
+        Map<Integer, Book> found = byTitle.get(title);
+        return found == null ? new ArrayList<>() : new ArrayList<>(found.values());
+    }
+
+    /**
+     * Returns the Books whose title starts with prefix, in title order.
+     */
+    public List<Book> withTitlePrefix(String prefix) {
+        List<Book> result = new ArrayList<>();
+        for (Map.Entry<String, Map<Integer, Book>> entry : byTitle.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;   // sorted, so no later title can start with prefix either
+            }
+            result.addAll(entry.getValue().values());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Books whose title is at most maxLength characters long,
+     * shortest titles first (the same Books as getShortTitledBooks()).
+     */
+    public List<Book> withTitleNoLongerThan(int maxLength) {
+        List<Book> result = new ArrayList<>();
+        for (Map<Integer, Book> sameLength : byTitleLength.headMap(maxLength, true).values()) {
+            result.addAll(sameLength.values());
+        }
+        return result;
+    }
+
+    /**
+     * Counts the Books whose title is at most maxLength characters long.
+     */
+    public int countTitleNoLongerThan(int maxLength) {
+        int count = 0;
+        for (Map<Integer, Book> sameLength : byTitleLength.headMap(maxLength, true).values()) {
+            count += sameLength.size();
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------------
+
+    @Override
+    public Set<Entry<Integer, Book>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return books.size();
+            }
+
+            @Override
+            public Iterator<Entry<Integer, Book>> iterator() {
+                Iterator<Entry<Integer, Book>> iterator = books.entrySet().iterator();
+                return new Iterator<>() {
+                    private Entry<Integer, Book> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<Integer, Book> next() {
+                        last = iterator.next();
+                        return new IndexedEntry(last.getKey(), last.getValue());
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        Book removed = last.getValue();
+                        iterator.remove();
+                        unindex(last.getKey(), removed);
+                        last = null;
+                    }
+                };
+            }
+        };
+    }
+
+    /** An entry whose setValue() goes through put(), so the indexes are updated. */
+    private final class IndexedEntry extends SimpleEntry<Integer, Book> {
+        private static final long serialVersionUID = 1L;
+
+        IndexedEntry(Integer code, Book book) {
+            super(code, book);
+        }
+
+        @Override
+        public Book setValue(Book book) {
+            super.setValue(book);
+            return put(getKey(), book);
+        }
+    }
+
+    private void index(Integer code, Book book) {
+        byTitle.computeIfAbsent(book.getTitle(), title -> new LinkedHashMap<>(2)).put(code, book);
+        byTitleLength.computeIfAbsent(book.getTitle().length(), length -> new HashMap<>()).put(code, book);
+    }
+
+    private void unindex(Integer code, Book book) {
+        String title = book.getTitle();
+        Map<Integer, Book> sameTitle = byTitle.get(title);
+        sameTitle.remove(code);
+        if (sameTitle.isEmpty()) {
+            byTitle.remove(title);
+        }
+        Map<Integer, Book> sameLength = byTitleLength.get(title.length());
+        sameLength.remove(code);
+        if (sameLength.isEmpty()) {
+            byTitleLength.remove(title.length());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * InstrumentedMap - wraps any Map and records how it is used.
+ * <p>
+ * For get(), put(), containsKey() and remove() it counts:
+ * - how many calls were made
+ * - for get() and containsKey(), how many found the key (hits) and how many
+ *   did not (misses - like "Elvis NOT found" in map1())
+ * - how long the calls took, as a LatencyHistogram
+ * It can also report how the keys are spread over HashMap buckets (see BucketStats).
+ * <p>
+ * Example:
+ *   InstrumentedMap<String, String> map = new InstrumentedMap<>(new HashMap<>());
+ *   ... use map as normal ...
+ *   System.out.println(map.report());
+ * <p>
+ * Counting is cheap, but reading the clock is not, so by default only one call
+ * in 16 is timed (chosen at random).  Use a sample rate of 1 to time every call.
+ * The counters are thread-safe, but the wrapped map is only as thread-safe as it was before.
+ */
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InstrumentedMap<K, V> extends AbstractMap<K, V> {
+
+    public static final int DEFAULT_SAMPLE_RATE = 16;
+
+    /** The operations that are counted and timed. */
+    public enum Operation { GET, PUT, CONTAINS_KEY, REMOVE }
+
+    private final Map<K, V> map;
+    private final int sampleMask;    // time a call when (random & sampleMask) == 0
+
+    private final LongAdder[] calls = new LongAdder[Operation.values().length];
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder getHits = new LongAdder();
+    private final LongAdder getMisses = new LongAdder();
+    private final LongAdder containsKeyHits = new LongAdder();
+    private final LongAdder containsKeyMisses = new LongAdder();
+
+    public InstrumentedMap(Map<K, V> map) {
+        this(map, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate time one call in every sampleRate calls (a power of two, 1 = time every call)
+     */
+    public InstrumentedMap(Map<K, V> map, int sampleRate) {
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("sampleRate must be a power of two: " + sampleRate);
+        }
+        this.map = Objects.requireNonNull(map, "map");
+        this.sampleMask = sampleRate - 1;
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the map that is being instrumented.
+     */
+    public Map<K, V> unwrap() {
+        return map;
+    }
+
+    @Override
+    public V get(Object key) {
+        calls[Operation.GET.ordinal()].increment();
+        V value;
+        if (sampled()) {
+            long start = System.nanoTime();
+            value = map.get(key);
+            latencies[Operation.GET.ordinal()].record(System.nanoTime() - start);
+        } else {
+            value = map.get(key);
+        }
+        (value != null ? getHits : getMisses).increment();
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        calls[Operation.CONTAINS_KEY.ordinal()].increment();
+        boolean found;
+        if (sampled()) {
+            long start = System.nanoTime();
+            found = map.containsKey(key);
+            latencies[Operation.CONTAINS_KEY.ordinal()].record(System.nanoTime() - start);
+        } else {
+            found = map.containsKey(key);
+        }
+        (found ? containsKeyHits : containsKeyMisses).increment();
+        return found;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        calls[Operation.PUT.ordinal()].increment();
+        if (sampled()) {
+            long start = System.nanoTime();
+            V previous = map.put(key, value);
+            latencies[Operation.PUT.ordinal()].record(System.nanoTime() - start);
+            return previous;
+        }
+        return map.put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        calls[Operation.REMOVE.ordinal()].increment();
+        if (sampled()) {
+            long start = System.nanoTime();
+            V previous = map.remove(key);
+            latencies[Operation.REMOVE.ordinal()].record(System.nanoTime() - start);
+            return previous;
+        }
+        return map.remove(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return map.entrySet();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return map.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return map.values();
+    }
+
+    // ---------------------------------------------------------------------
+    // statistics
+
+    public long calls(Operation operation) {
+        return calls[operation.ordinal()].sum();
+    }
+
+    public LatencyHistogram latency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    public long getHits() {
+        return getHits.sum();
+    }
+
+    public long getMisses() {
+        return getMisses.sum();
+    }
+
+    /**
+     * Fraction of get() calls that found a value (0 if get() was never called).
+     */
+    public double getHitRate() {
+        long hits = getHits.sum();
+        long total = hits + getMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * How the current keys would be spread over the buckets of a HashMap.
+     * This walks all the keys, so call it occasionally, not on every operation.
+     */
+    public BucketStats bucketStats() {
+        return BucketStats.of(map.keySet());
+    }
+
+    public void reset() {
+        for (int i = 0; i < calls.length; i++) {
+            calls[i].reset();
+            latencies[i].reset();
+        }
+        getHits.reset();
+        getMisses.reset();
+        containsKeyHits.reset();
+        containsKeyMisses.reset();
+    }
+
+    /**
+     * A text report of all statistics.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("InstrumentedMap (").append(map.getClass().getSimpleName())
+                .append(", size=").append(map.size()).append(")\n");
+        for (Operation operation : Operation.values()) {
+            sb.append("  ").append(operation).append(": calls=").append(calls(operation));
+            if (operation == Operation.GET) {
+                sb.append(", hits=").append(getHits.sum()).append(", misses=").append(getMisses.sum());
+            } else if (operation == Operation.CONTAINS_KEY) {
+                sb.append(", hits=").append(containsKeyHits.sum()).append(", misses=").append(containsKeyMisses.sum());
+            }
+            sb.append(", timed ").append(latency(operation)).append('\n');
+        }
+        if (map instanceof HashMap) {
+            sb.append("  buckets: ").append(bucketStats()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The same statistics as report(), as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"map\":\"").append(map.getClass().getSimpleName())
+                .append("\",\"size\":").append(map.size())
+                .append(",\"sampleRate\":").append(sampleMask + 1)
+                .append(",\"operations\":{");
+        for (Operation operation : Operation.values()) {
+            if (operation.ordinal() > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(operation).append("\":{\"calls\":").append(calls(operation));
+            if (operation == Operation.GET) {
+                sb.append(",\"hits\":").append(getHits.sum()).append(",\"misses\":").append(getMisses.sum());
+            } else if (operation == Operation.CONTAINS_KEY) {
+                sb.append(",\"hits\":").append(containsKeyHits.sum()).append(",\"misses\":").append(containsKeyMisses.sum());
+            }
+            sb.append(",\"latency\":").append(latency(operation).toJson()).append('}');
+        }
+        sb.append('}');
+        if (map instanceof HashMap) {
+            sb.append(",\"buckets\":").append(bucketStats().toJson());
+        }
+        return sb.append('}').toString();
+    }
+
+    private boolean sampled() {
+        return (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * A consumer that accepts a primitive int key and an object value.
+ * <p>
+ * Used by the primitive-keyed maps (e.g. BookIndex) so that we can iterate
+ * over all entries without boxing each int key into an Integer.
+ * (java.util.function has ObjIntConsumer, but its parameters are the other way round.)
+ */
+
+@FunctionalInterface
+public interface IntObjConsumer<T> {
+    void accept(int key, T value);
+}
@@ -0,0 +1,138 @@
+/**
+ * LatencyHistogram - records how long operations take, so that we can report
+ * percentiles (e.g. "99% of get() calls took less than 120ns").
+ * <p>
+ * Storing every time would use too much memory, so times are counted in
+ * buckets.  Like HdrHistogram, the buckets are "log-linear": each power of two
+ * (64-127ns, 128-255ns, ...) is split into 8 equal sub-buckets, so every
+ * recorded time is accurate to within 12.5%, whatever its size.
+ * <p>
+ * record() is thread-safe and does not lock or allocate.
+ */
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;  // 8
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one operation that took the given number of nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+
+    public double meanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * Returns the time (in nanoseconds) that the given percentage of recorded
+     * operations took no longer than, e.g. percentile(99.9).
+     * The result is the upper edge of the bucket that contains the percentile.
+     */
+    public long percentile(double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("percent must be between 0 and 100: " + percent);
+        }
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i), maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count()
+                + ", mean=" + String.format(Locale.ROOT, "%.1f", meanNanos()) + "ns"
+                + ", p50=" + percentile(50) + "ns"
+                + ", p99=" + percentile(99) + "ns"
+                + ", p99.9=" + percentile(99.9) + "ns"
+                + ", max=" + maxNanos() + "ns";
+    }
+
+    public String toJson() {
+        return "{\"count\":" + count()
+                + ",\"meanNanos\":" + String.format(Locale.ROOT, "%.1f", meanNanos())
+                + ",\"p50Nanos\":" + percentile(50)
+                + ",\"p99Nanos\":" + percentile(99)
+                + ",\"p999Nanos\":" + percentile(99.9)
+                + ",\"maxNanos\":" + maxNanos()
+                + "}";
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * Values below 8 get a bucket each.  Above that, the bucket is chosen by the
+     * position of the highest 1 bit (the power of two) and the 3 bits below it.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);   // value is in [2^exponent, 2^(exponent+1))
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        long lower = (1L << exponent) + subBucket * width;
+        return lower + width - 1;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * LoadHarness - runs a timed load on many virtual threads, and counts and times what they did.
+ * <p>
+ * LookupLoadGenerator and DurabilityBenchmark both need the same thing: start
+ * many threads at the same moment, let each one make requests over and over
+ * until the time is up, and then report the throughput and latency.  Each
+ * thread is given its own Operation (so it can hold its own connection or
+ * buffers), and the harness:
+ * - starts all threads together (a CountDownLatch), so none gets a head start
+ * - times every call of the operation, into one shared LatencyHistogram
+ * - adds up the requests the calls made (a batch can count as several)
+ * - stops a thread whose operation throws IOException, and counts it as failed
+ * <p>
+ * Example:
+ *   LoadHarness.Result result = LoadHarness.run(operations, 10);
+ *   System.out.println(result.requestsPerSecond() + " requests/s, " + result.latencies());
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class LoadHarness {
+
+    /**
+     * What one load thread does, over and over.
+     */
+    @FunctionalInterface
+    public interface Operation {
+        /**
+         * Makes one round of requests, and returns how many requests it counts as.
+         */
+        int run(ThreadLocalRandom random) throws IOException;
+    }
+
+    private LoadHarness() {
+    }
+
+    /**
+     * Runs each operation on its own virtual thread for the given number of seconds.
+     */
+    public static Result run(List<? extends Operation> operations, int seconds) throws InterruptedException {
+        if (operations.isEmpty() || seconds < 1) {
+            throw new IllegalArgumentException("Bad load settings: threads=" + operations.size()
+                    + ", seconds=" + seconds);
+        }
+        Result result = new Result(operations.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(operations.size());
+        for (Operation operation : operations) {
+            threads.add(Thread.ofVirtual().start(() -> drive(operation, start, result)));
+        }
+
+        long begin = System.nanoTime();
+        result.endNanos = begin + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        result.elapsedNanos = System.nanoTime() - begin;
+        return result;
+    }
+
+    private static void drive(Operation operation, CountDownLatch start, Result result) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            start.await();
+            while (System.nanoTime() < result.endNanos) {
+                long began = System.nanoTime();
+                int requests = operation.run(random);
+                result.latencies.record(System.nanoTime() - began);
+                result.requests.add(requests);
+            }
+        } catch (IOException e) {
+            result.failures.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Result {
+        private final int threads;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();   // threads that stopped because of an error
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private volatile long endNanos;
+        private long elapsedNanos;
+
+        Result(int threads) {
+            this.threads = threads;
+        }
+
+        public int threads() {
+            return threads;
+        }
+
+        public long requests() {
+            return requests.sum();
+        }
+
+        public double requestsPerSecond() {
+            return elapsedNanos == 0 ? 0 : requests.sum() * 1e9 / elapsedNanos;
+        }
+
+        public long failedThreads() {
+            return failures.sum();
+        }
+
+        /** How long each call of an operation took. */
+        public LatencyHistogram latencies() {
+            return latencies;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + requests.sum()
+                    + ", requestsPerSecond=" + String.format(Locale.ROOT, "%.0f", requestsPerSecond())
+                    + ", failedThreads=" + failures.sum()
+                    + "\nlatency: " + latencies;
+        }
+
+        /**
+         * The same fields as toString(), as JSON object members (without the braces),
+         * so that a caller can add its own settings to the object.
+         */
+        public String toJsonFields() {
+            return "\"requests\":" + requests.sum()
+                    + ",\"requestsPerSecond\":" + String.format(Locale.ROOT, "%.0f", requestsPerSecond())
+                    + ",\"failedThreads\":" + failures.sum()
+                    + ",\"latencies\":" + latencies.toJson();
+        }
+
+        public String toJson() {
+            return "{\"threads\":" + threads + "," + toJsonFields() + "}";
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * LookupLoadGenerator - measures how fast a BookLookupServer answers many clients at once.
+ * <p>
+ * It opens one connection per client, each driven by its own virtual thread,
+ * and for a fixed time every client repeatedly:
+ * - reads a batch of random books with getBooks() (readPercent of the time), or
+ * - replaces one random book with putBook()
+ * Every round trip is timed (by LoadHarness), and at the end it reports the
+ * throughput (requests per second, counting each book in a batch as one request)
+ * and the round-trip latency percentiles.
+ * <p>
+ * Usage: LookupLoadGenerator [clients] [seconds] [batchSize] [readPercent] [port]
+ *   defaults: 1000 clients, 10 seconds, batches of 16, 90% reads, and port 0,
+ *   which starts a server in this JVM, filled with BOOK_COUNT books.
+ *   With another port, the server must already be running and hold books 0..BOOK_COUNT-1.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LookupLoadGenerator {
+
+    public static final int BOOK_COUNT = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int readPercent = args.length > 3 ? Integer.parseInt(args[3]) : 90;
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        if (port != 0) {
+            System.out.println(run(port, clients, seconds, batchSize, readPercent));
+            return;
+        }
+        ConcurrentHashMap<Integer, Book> books = new ConcurrentHashMap<>(BOOK_COUNT);
+        for (int code = 0; code < BOOK_COUNT; code++) {
+            books.put(code, new Book(code, "Title " + code));
+        }
+        try (BookLookupServer server = new BookLookupServer(books, new FavouriteBookRegistry()).start(0)) {
+            System.out.println(run(server.port(), clients, seconds, batchSize, readPercent));
+        }
+    }
+
+    /**
+     * Runs the load against the server on this machine's port, and returns the results.
+     */
+    public static Result run(int port, int clients, int seconds, int batchSize, int readPercent)
+            throws IOException, InterruptedException {
+        if (clients < 1 || seconds < 1 || batchSize < 1 || readPercent < 0 || readPercent > 100) {
+            throw new IllegalArgumentException("Bad load settings: clients=" + clients + ", seconds=" + seconds
+                    + ", batchSize=" + batchSize + ", readPercent=" + readPercent);
+        }
+        List<BookLookupClient> connections = new ArrayList<>(clients);
+        try {
+            for (int i = 0; i < clients; i++) {
+                connections.add(new BookLookupClient(port));
+            }
+
+            List<LoadHarness.Operation> operations = new ArrayList<>(clients);
+            for (BookLookupClient client : connections) {
+                operations.add(clientOperation(client, batchSize, readPercent));
+            }
+            return new Result(batchSize, readPercent, LoadHarness.run(operations, seconds));
+        } finally {
+            for (BookLookupClient client : connections) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * One round trip of a client: a getBooks() batch (readPercent of the time) or a putBook().
+     */
+    private static LoadHarness.Operation clientOperation(BookLookupClient client, int batchSize, int readPercent) {
+        int[] codes = new int[batchSize];
+        return random -> {
+            if (random.nextInt(100) < readPercent) {
+                for (int i = 0; i < batchSize; i++) {
+                    codes[i] = random.nextInt(BOOK_COUNT);
+                }
+                client.getBooks(codes);
+                return batchSize;
+            }
+            int code = random.nextInt(BOOK_COUNT);
+            client.putBook(new Book(code, "Title " + code));
+            return 1;
+        };
+    }
+
+    public static class Result {
+        private final int batchSize;
+        private final int readPercent;
+        private final LoadHarness.Result load;
+
+        Result(int batchSize, int readPercent, LoadHarness.Result load) {
+            this.batchSize = batchSize;
+            this.readPercent = readPercent;
+            this.load = load;
+        }
+
+        public long requests() {
+            return load.requests();
+        }
+
+        public double requestsPerSecond() {
+            return load.requestsPerSecond();
+        }
+
+        public LatencyHistogram roundTrips() {
+            return load.latencies();
+        }
+
+        @Override
+        public String toString() {
+            return "clients=" + load.threads() + ", batchSize=" + batchSize + ", readPercent=" + readPercent
+                    + ", " + load;
+        }
+
+        public String toJson() {
+            return "{\"clients\":" + load.threads()
+                    + ",\"batchSize\":" + batchSize
+                    + ",\"readPercent\":" + readPercent
+                    + "," + load.toJsonFields()
+                    + "}";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * LzBlockCodec - a small, fast block compressor in the style of LZ4.
+ * <p>
+ * The compressor looks for a sequence of 4 or more bytes that already appeared
+ * in the last 64KB of the block, and replaces it with a (distance back, length)
+ * pair.  Repeated titles, names and attribute values compress well this way.
+ * It favours speed over compression ratio: each position is checked against
+ * only one earlier position (found through a hash table of 4-byte sequences).
+ * <p>
+ * The output uses the LZ4 block layout: a series of "sequences", each being
+ *   [token][extra literal length bytes][literals][2-byte offset][extra match length bytes]
+ * where the token holds the literal length (high 4 bits) and match length - 4
+ * (low 4 bits), and a length of 15 continues in following bytes (255 = keep going).
+ * The last sequence has literals only.
+ */
+
+import java.util.Arrays;
+
+public final class LzBlockCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int LAST_LITERALS = 5;    // the block always ends with at least 5 literals
+    private static final int MATCH_LIMIT = 12;     // no match may start in the last 12 bytes
+    private static final int HASH_BITS = 14;
+
+    private LzBlockCodec() {
+    }
+
+    /**
+     * The largest possible compressed size of length bytes (if nothing matches).
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src[0..length) into dst, which must have room for
+     * maxCompressedLength(length) bytes.  Returns the compressed length.
+     */
+    public static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+
+        int out = 0;
+        int anchor = 0;     // start of the literals not yet written
+        int i = 0;
+        int limit = length - MATCH_LIMIT;
+        while (i < limit) {
+            int sequence = readInt(src, i);
+            int h = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                i++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            int matchEnd = length - LAST_LITERALS;
+            while (i + matchLength < matchEnd && src[ref + matchLength] == src[i + matchLength]) {
+                matchLength++;
+            }
+            out = writeSequence(src, anchor, i - anchor, i - ref, matchLength, dst, out);
+            i += matchLength;
+            anchor = i;
+        }
+        // last literals
+        int literals = length - anchor;
+        int token = Math.min(literals, 15) << 4;
+        dst[out++] = (byte) token;
+        out = writeLength(literals, dst, out);
+        System.arraycopy(src, anchor, dst, out, literals);
+        return out + literals;
+    }
+
+    /**
+     * Decompresses src[0..length) into dst, which must have room for the original bytes.
+     * Returns the number of bytes written (the original size).
+     *
+     * @throws IllegalArgumentException if the compressed data is corrupt
+     */
+    public static int decompress(byte[] src, int length, byte[] dst) {
+        int in = 0;
+        int out = 0;
+        try {
+            while (in < length) {
+                int token = src[in++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dst, out, literals);
+                in += literals;
+                out += literals;
+                if (in >= length) {
+                    break;   // the last sequence has no match
+                }
+
+                int offset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+                in += 2;
+                if (offset == 0 || offset > out) {
+                    throw new IllegalArgumentException("Corrupt compressed block: bad offset " + offset);
+                }
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                // copy byte by byte: the match may overlap the bytes it is producing
+                int from = out - offset;
+                for (int k = 0; k < matchLength; k++) {
+                    dst[out++] = dst[from + k];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Corrupt compressed block", e);
+        }
+        return out;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literals, int offset, int matchLength,
+                                     byte[] dst, int out) {
+        int matchCode = matchLength - MIN_MATCH;
+        dst[out++] = (byte) (Math.min(literals, 15) << 4 | Math.min(matchCode, 15));
+        out = writeLength(literals, dst, out);
+        System.arraycopy(src, literalStart, dst, out, literals);
+        out += literals;
+        dst[out++] = (byte) offset;
+        dst[out++] = (byte) (offset >>> 8);
+        return writeLength(matchCode, dst, out);
+    }
+
+    /** Writes the part of a length that did not fit in the 4 bits of the token. */
+    private static int writeLength(int length, byte[] dst, int out) {
+        if (length < 15) {
+            return out;
+        }
+        length -= 15;
+        while (length >= 255) {
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,518 @@
+/**
+ * MapSnapshot - saves the demo maps to a compact binary file, and loads them back.
+ * <p>
+ * Three kinds of map can be saved:
+ * - Map<Integer, Book>                       (the book catalogue in map3())
+ * - Map<Student, Book>                       (favourite books in map7())
+ * - Map<String, HashMap<String, String>>     (user attributes in map8())
+ * <p>
+ * A snapshot is much smaller and faster than Java serialization or a text dump:
+ * - numbers are written as "varints": 1 byte for 0..127, 2 bytes up to 16383, ...
+ * - each distinct string (title, name, attribute name or value) is written once;
+ *   after that it is written as a small number - its position in a string table
+ * - the data can be compressed block by block with LzBlockCodec
+ * <p>
+ * File layout:
+ *   header: [int MAGIC][byte VERSION][byte kind][byte flags][byte 0][long entry count]
+ *   blocks: [int raw length][int stored length][int CRC32 of raw bytes][stored bytes]
+ *   end:    a block with raw length 0
+ * A block is stored compressed only if that made it smaller (stored length < raw length).
+ * Entries run on from one block to the next, so a block can end in the middle of an entry.
+ * <p>
+ * Reading and writing stream through a FileChannel, one block (1MB) at a time,
+ * reusing the same buffers, so even a very large snapshot needs little memory.
+ * A snapshot is written to a temporary file first and then renamed, so a crash
+ * while saving leaves the previous snapshot in place.
+ * <p>
+ * Example:
+ *   MapSnapshot.writeBooks(Path.of("books.snap"), bookMap, true);
+ *   Map<Integer, Book> restored = MapSnapshot.readBooks(Path.of("books.snap"));
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public final class MapSnapshot {
+
+    private static final int MAGIC = 0x4D534E50;   // "MSNP"
+    private static final byte VERSION = 1;
+
+    private static final byte KIND_BOOKS = 1;
+    private static final byte KIND_FAVOURITE_BOOKS = 2;
+    private static final byte KIND_USER_ATTRIBUTES = 3;
+
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int MAX_BLOCK_SIZE = 1 << 24;        // larger blocks mean a corrupt file
+    private static final int MAX_STRING_TABLE_SIZE = 1 << 20; // later new strings are written in full
+
+    // string tags: 0 = new string, added to the table; 1 = string not added; n >= 2 = table entry n - 2
+    private static final int TAG_NEW = 0;
+    private static final int TAG_LITERAL = 1;
+    private static final int TAG_FIRST_REFERENCE = 2;
+
+    private MapSnapshot() {
+    }
+
+    // ---------------------------------------------------------------------
+    // Map<Integer, Book>
+
+    public static void writeBooks(Path file, Map<Integer, Book> books, boolean compress) throws IOException {
+        write(file, KIND_BOOKS, books.size(), compress, out -> {
+            for (Map.Entry<Integer, Book> entry : books.entrySet()) {
+                out.writeSignedVarint(entry.getKey());
+                out.writeBook(entry.getValue());
+            }
+        });
+    }
+
+    public static Map<Integer, Book> readBooks(Path file) throws IOException {
+        try (Input in = new Input(file, KIND_BOOKS)) {
+            Map<Integer, Book> books = new HashMap<>(capacityFor(in.entryCount));
+            for (long i = 0; i < in.entryCount; i++) {
+                int code = in.readSignedVarint();
+                books.put(code, in.readBook());
+            }
+            in.expectEnd();
+            return books;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Map<Student, Book>
+
+    public static void writeFavouriteBooks(Path file, Map<Student, Book> favouriteBooks, boolean compress)
+            throws IOException {
+        write(file, KIND_FAVOURITE_BOOKS, favouriteBooks.size(), compress, out -> {
+            for (Map.Entry<Student, Book> entry : favouriteBooks.entrySet()) {
+                out.writeSignedVarint(entry.getKey().getId());
+                out.writeString(entry.getKey().getName());
+                out.writeBook(entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * Reads a Map<Student, Book>.  Students who shared a Book object when the map
+     * was saved share one Book object again.
+     */
+    public static Map<Student, Book> readFavouriteBooks(Path file) throws IOException {
+        try (Input in = new Input(file, KIND_FAVOURITE_BOOKS)) {
+            Map<Student, Book> favouriteBooks = new HashMap<>(capacityFor(in.entryCount));
+            for (long i = 0; i < in.entryCount; i++) {
+                int id = in.readSignedVarint();
+                String name = in.readString();
+                favouriteBooks.put(new Student(id, name), in.readBook());
+            }
+            in.expectEnd();
+            return favouriteBooks;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Map<String, HashMap<String, String>>
+
+    public static void writeUserAttributes(Path file, Map<String, ? extends Map<String, String>> users,
+                                           boolean compress) throws IOException {
+        write(file, KIND_USER_ATTRIBUTES, users.size(), compress, out -> {
+            for (Map.Entry<String, ? extends Map<String, String>> user : users.entrySet()) {
+                out.writeString(user.getKey());
+                Map<String, String> attributes = user.getValue();
+                out.writeVarint(attributes.size());
+                for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                    out.writeString(attribute.getKey());
+                    out.writeString(attribute.getValue());
+                }
+            }
+        });
+    }
+
+    public static Map<String, HashMap<String, String>> readUserAttributes(Path file) throws IOException {
+        try (Input in = new Input(file, KIND_USER_ATTRIBUTES)) {
+            Map<String, HashMap<String, String>> users = new HashMap<>(capacityFor(in.entryCount));
+            for (long i = 0; i < in.entryCount; i++) {
+                String user = in.readString();
+                int count = in.readVarint();
+                HashMap<String, String> attributes = new HashMap<>(capacityFor(count));
+                for (int a = 0; a < count; a++) {
+                    String name = in.readString();
+                    attributes.put(name, in.readString());
+                }
+                users.put(user, attributes);
+            }
+            in.expectEnd();
+            return users;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private interface EntryWriter {
+        void writeEntries(Output out) throws IOException;
+    }
+
+    private static void write(Path file, byte kind, long entryCount, boolean compress, EntryWriter entries)
+            throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Output out = new Output(temporary, compress)) {
+            out.writeHeader(kind, entryCount);
+            entries.writeEntries(out);
+            out.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int capacityFor(long entries) {
+        return (int) Math.min(1 << 30, entries * 4 / 3 + 1);
+    }
+
+    /**
+     * Collects entries into a block, and writes each full block to the file.
+     */
+    private static final class Output implements AutoCloseable {
+        private final FileChannel channel;
+        private final boolean compress;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed;
+        private final ByteBuffer buffer;          // direct, so the channel can write it without copying
+        private final CRC32 crc = new CRC32();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private int position;
+
+        Output(Path file, boolean compress) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.compress = compress;
+            this.compressed = compress ? new byte[LzBlockCodec.maxCompressedLength(BLOCK_SIZE)] : null;
+            this.buffer = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + LzBlockCodec.maxCompressedLength(BLOCK_SIZE));
+        }
+
+        void writeHeader(byte kind, long entryCount) throws IOException {
+            buffer.clear();
+            buffer.putInt(MAGIC).put(VERSION).put(kind).put(compress ? FLAG_COMPRESSED : 0).put((byte) 0)
+                    .putLong(entryCount);
+            writeBuffer();
+        }
+
+        void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        /** "zigzag" encoding, so small negative numbers are short too: 0, -1, 1, -2, ... => 0, 1, 2, 3, ... */
+        void writeSignedVarint(int value) throws IOException {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeString(String s) throws IOException {
+            Integer id = stringIds.get(s);
+            if (id != null) {
+                writeVarint(id + TAG_FIRST_REFERENCE);
+                return;
+            }
+            if (stringIds.size() < MAX_STRING_TABLE_SIZE) {
+                stringIds.put(s, stringIds.size());
+                writeVarint(TAG_NEW);
+            } else {
+                writeVarint(TAG_LITERAL);
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        }
+
+        /** Writes the code and title; the title goes through the string table. */
+        void writeBook(Book book) throws IOException {
+            writeSignedVarint(book.getCode());
+            writeString(book.getTitle());
+        }
+
+        void finish() throws IOException {
+            flushBlock();
+            writeBlock(0, 0, 0, null);   // end marker
+            channel.force(true);
+        }
+
+        private void writeByte(int b) throws IOException {
+            if (position == BLOCK_SIZE) {
+                flushBlock();
+            }
+            block[position++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (position == BLOCK_SIZE) {
+                    flushBlock();
+                }
+                int n = Math.min(bytes.length - offset, BLOCK_SIZE - position);
+                System.arraycopy(bytes, offset, block, position, n);
+                position += n;
+                offset += n;
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (position == 0) {
+                return;
+            }
+            crc.reset();
+            crc.update(block, 0, position);
+            int checksum = (int) crc.getValue();
+            if (compress) {
+                int length = LzBlockCodec.compress(block, position, compressed);
+                if (length < position) {
+                    writeBlock(position, length, checksum, compressed);
+                    position = 0;
+                    return;
+                }
+            }
+            writeBlock(position, position, checksum, block);
+            position = 0;
+        }
+
+        private void writeBlock(int rawLength, int storedLength, int checksum, byte[] bytes) throws IOException {
+            buffer.clear();
+            buffer.putInt(rawLength).putInt(storedLength).putInt(checksum);
+            if (storedLength > 0) {
+                buffer.put(bytes, 0, storedLength);
+            }
+            writeBuffer();
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the file one block at a time, and decodes entries from the current block.
+     */
+    private static final class Input implements AutoCloseable {
+        private final FileChannel channel;
+        private final long entryCount;
+        private final ByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private final List<String> strings = new ArrayList<>();
+        private final BookIndex books = new BookIndex();   // to share Book objects, as in the saved map
+        private byte[] block = new byte[BLOCK_SIZE];
+        private byte[] stored = new byte[0];
+        private int position;
+        private int limit;
+        private boolean ended;
+
+        Input(Path file, byte expectedKind) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                this.buffer = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE + LzBlockCodec.maxCompressedLength(BLOCK_SIZE));
+                buffer.limit(HEADER_SIZE);
+                readFully();
+                int magic = buffer.getInt();
+                byte version = buffer.get();
+                byte kind = buffer.get();
+                buffer.get();   // flags: each block says whether it is compressed
+                buffer.get();
+                this.entryCount = buffer.getLong();
+                if (magic != MAGIC) {
+                    throw new IOException(file + " is not a map snapshot");
+                }
+                if (version != VERSION) {
+                    throw new IOException(file + ": unsupported snapshot version " + version);
+                }
+                if (kind != expectedKind) {
+                    throw new IOException(file + ": snapshot holds map kind " + kind + ", expected " + expectedKind);
+                }
+                if (entryCount < 0) {
+                    throw new IOException(file + ": bad entry count " + entryCount);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt snapshot: varint is too long");
+        }
+
+        int readSignedVarint() throws IOException {
+            int v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString() throws IOException {
+            int tag = readVarint();
+            if (tag >= TAG_FIRST_REFERENCE) {
+                int id = tag - TAG_FIRST_REFERENCE;
+                if (id >= strings.size()) {
+                    throw new IOException("Corrupt snapshot: unknown string " + id);
+                }
+                return strings.get(id);
+            }
+            int length = readVarint();
+            if (length < 0) {
+                throw new IOException("Corrupt snapshot: bad string length " + length);
+            }
+            String s;
+            if (limit - position >= length) {
+                s = new String(block, position, length, StandardCharsets.UTF_8);
+                position += length;
+            } else {
+                byte[] bytes = new byte[length];   // the string continues in the next block
+                int offset = 0;
+                while (offset < length) {
+                    if (position == limit) {
+                        nextBlock();
+                    }
+                    int n = Math.min(length - offset, limit - position);
+                    System.arraycopy(block, position, bytes, offset, n);
+                    position += n;
+                    offset += n;
+                }
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if (tag == TAG_NEW) {
+                strings.add(s);
+            }
+            return s;
+        }
+
+        Book readBook() throws IOException {
+            int code = readSignedVarint();
+            String title = readString();
+            Book book = books.get(code);
+            if (book == null || !book.getTitle().equals(title)) {
+                book = new Book(code, title);
+                books.put(code, book);
+            }
+            return book;
+        }
+
+        /** Checks that all the data has been read and the end marker follows. */
+        void expectEnd() throws IOException {
+            if (position < limit) {
+                throw new IOException("Corrupt snapshot: data after the last entry");
+            }
+            nextBlock();
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                nextBlock();
+            }
+            return block[position++] & 0xFF;
+        }
+
+        private void nextBlock() throws IOException {
+            if (ended) {
+                throw new EOFException("Corrupt snapshot: more entries expected");
+            }
+            buffer.clear().limit(BLOCK_HEADER_SIZE);
+            readFully();
+            int rawLength = buffer.getInt();
+            int storedLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (rawLength == 0) {
+                ended = true;
+                position = limit = 0;
+                if (storedLength != 0 || channel.position() != channel.size()) {
+                    throw new IOException("Corrupt snapshot: data after the end marker");
+                }
+                return;
+            }
+            if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE || storedLength <= 0 || storedLength > rawLength) {
+                throw new IOException("Corrupt snapshot: bad block lengths " + rawLength + "/" + storedLength);
+            }
+            if (block.length < rawLength) {
+                block = new byte[rawLength];
+            }
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            readStored(storedLength);
+            if (storedLength < rawLength) {
+                try {
+                    if (LzBlockCodec.decompress(stored, storedLength, block) != rawLength) {
+                        throw new IOException("Corrupt snapshot: block has the wrong length");
+                    }
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    throw new IOException("Corrupt snapshot: " + e.getMessage(), e);
+                }
+            } else {
+                System.arraycopy(stored, 0, block, 0, rawLength);
+            }
+            crc.reset();
+            crc.update(block, 0, rawLength);
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupt snapshot: block checksum does not match");
+            }
+            position = 0;
+            limit = rawLength;
+        }
+
+        /** Reads length bytes into stored, through the direct buffer. */
+        private void readStored(int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(length - offset, buffer.capacity());
+                buffer.clear().limit(n);
+                readFully();
+                buffer.get(stored, offset, n);
+                offset += n;
+            }
+        }
+
+        /** Fills the buffer up to its limit, then flips it for reading. */
+        private void readFully() throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Snapshot file is truncated");
+                }
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
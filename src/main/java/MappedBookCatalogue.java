@@ -0,0 +1,408 @@
+/**
+ * MappedBookCatalogue - a persistent Map of book code => Book, stored in files.
+ * <p>
+ * The maps in AppMainMapsDemo only exist in memory, so they must be rebuilt
+ * every time the program starts.  This catalogue keeps its data in two files
+ * which are "memory-mapped": the operating system makes the file contents
+ * appear in memory, and loads each page from disk only when it is first read.
+ * Opening a catalogue therefore takes milliseconds, whatever its size, and
+ * the books are not copied onto the Java heap.
+ * <p>
+ * The files are:
+ * - name.idx  a header followed by a fixed number of slots.  Each slot holds a
+ *             book code and the position of its title in the log.  A code is
+ *             found the same way as in BookIndex (hash, then linear probing).
+ * - name.log  an append-only log of titles.  Each record is
+ *             [int code][int byte length][UTF-8 title bytes].  Changing a title
+ *             appends a new record; old records are never changed.
+ * <p>
+ * The number of slots is fixed when the catalogue is created, so create it
+ * with the largest number of books it will need to hold.  remove() empties the
+ * slot and moves later entries back (as BookIndex does), so removing and adding
+ * books never uses up slots.
+ * <p>
+ * Not thread-safe for updates.  Uses the Java 22 FFM API
+ * (FileChannel.map with an Arena), so files larger than 2GB can be mapped.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+
+public class MappedBookCatalogue implements AutoCloseable {
+
+    private static final int MAGIC = 0x424B4341;   // "BKCA"
+    private static final int VERSION = 1;
+
+    // header of the .idx file
+    private static final long HEADER_BYTES = 64;
+    private static final long MAGIC_OFFSET = 0;
+    private static final long VERSION_OFFSET = 4;
+    private static final long SLOT_COUNT_OFFSET = 8;
+    private static final long SIZE_OFFSET = 16;
+    private static final long USED_SLOTS_OFFSET = 24;  // slots that are not empty (live + deleted)
+    private static final long LOG_SIZE_OFFSET = 32;
+
+    // each slot: [long title record offset + 1 (0 = empty, -1 = deleted)][int code][int title byte length]
+    // (only catalogues written by older versions have deleted slots)
+    private static final long SLOT_BYTES = 16;
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+
+    private static final long LOG_RECORD_HEADER = 8;  // int code + int length
+    private static final long MIN_LOG_BYTES = 1 << 16;
+    private static final double MAX_LOAD = 0.75;
+
+    private final Path indexFile;
+    private final Path logFile;
+    private final Arena arena;
+    private final FileChannel indexChannel;
+    private final FileChannel logChannel;
+    private final MemorySegment index;
+    private MemorySegment log;
+
+    private final long slotCount;
+    private final long mask;
+
+    private MappedBookCatalogue(Path baseName, boolean create, int expectedBooks) throws IOException {
+        this.indexFile = Path.of(baseName + ".idx");
+        this.logFile = Path.of(baseName + ".log");
+        this.arena = Arena.ofShared();
+        FileChannel idx = null;
+        FileChannel lg = null;
+        try {
+            if (create) {
+                long slots = Long.highestOneBit(Math.max(16, (long) (expectedBooks / MAX_LOAD) + 1) - 1) << 1;
+                idx = FileChannel.open(indexFile, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                lg = FileChannel.open(logFile, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                index = idx.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + slots * SLOT_BYTES, arena);
+                index.set(ValueLayout.JAVA_INT, MAGIC_OFFSET, MAGIC);
+                index.set(ValueLayout.JAVA_INT, VERSION_OFFSET, VERSION);
+                index.set(ValueLayout.JAVA_LONG, SLOT_COUNT_OFFSET, slots);
+                log = lg.map(FileChannel.MapMode.READ_WRITE, 0, MIN_LOG_BYTES, arena);
+            } else {
+                idx = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                lg = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                index = idx.map(FileChannel.MapMode.READ_WRITE, 0, idx.size(), arena);
+                if (index.byteSize() < HEADER_BYTES
+                        || index.get(ValueLayout.JAVA_INT, MAGIC_OFFSET) != MAGIC) {
+                    throw new IOException("Not a book catalogue: " + indexFile);
+                }
+                int version = index.get(ValueLayout.JAVA_INT, VERSION_OFFSET);
+                if (version != VERSION) {
+                    throw new IOException("Unsupported catalogue version " + version + " in " + indexFile);
+                }
+                log = lg.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(MIN_LOG_BYTES, lg.size()), arena);
+            }
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            if (idx != null) {
+                idx.close();
+            }
+            if (lg != null) {
+                lg.close();
+            }
+            throw e;
+        }
+        indexChannel = idx;
+        logChannel = lg;
+        slotCount = index.get(ValueLayout.JAVA_LONG, SLOT_COUNT_OFFSET);
+        mask = slotCount - 1;
+    }
+
+    /**
+     * Creates a new, empty catalogue with room for expectedBooks books.
+     * The files baseName.idx and baseName.log must not already exist.
+     */
+    public static MappedBookCatalogue create(Path baseName, int expectedBooks) throws IOException {
+        if (expectedBooks < 0) {
+            throw new IllegalArgumentException("expectedBooks must not be negative: " + expectedBooks);
+        }
+        return new MappedBookCatalogue(baseName, true, expectedBooks);
+    }
+
+    /**
+     * Opens an existing catalogue.  Nothing is read until it is needed.
+     */
+    public static MappedBookCatalogue open(Path baseName) throws IOException {
+        return new MappedBookCatalogue(baseName, false, 0);
+    }
+
+    /**
+     * Creates a new catalogue containing all the Books in bookMap.
+     */
+    public static MappedBookCatalogue create(Path baseName, Map<Integer, Book> bookMap) throws IOException {
+        MappedBookCatalogue catalogue = create(baseName, bookMap.size());
+        for (Book book : bookMap.values()) {
+            catalogue.put(book.getCode(), book.getTitle());
+        }
+        return catalogue;
+    }
+
+    public static boolean exists(Path baseName) {
+        return Files.exists(Path.of(baseName + ".idx")) && Files.exists(Path.of(baseName + ".log"));
+    }
+
+    public long size() {
+        return index.get(ValueLayout.JAVA_LONG, SIZE_OFFSET);
+    }
+
+    /**
+     * Returns the Book for the code, or null if the code is not in the catalogue.
+     */
+    public Book get(int code) {
+        long slot = findSlot(code);
+        if (slot < 0) {
+            return null;
+        }
+        return new Book(code, readTitle(slot));
+    }
+
+    public boolean containsKey(int code) {
+        return findSlot(code) >= 0;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a book's title directly from the mapped log,
+     * without copying them, or null if the code is not in the catalogue.
+     * The returned segment is only valid until the catalogue is closed.
+     */
+    public MemorySegment titleBytes(int code) {
+        long slot = findSlot(code);
+        if (slot < 0) {
+            return null;
+        }
+        long recordOffset = index.get(ValueLayout.JAVA_LONG, slotOffset(slot)) - 1;
+        int length = index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 12);
+        return log.asSlice(recordOffset + LOG_RECORD_HEADER, length).asReadOnly();
+    }
+
+    /**
+     * Adds or replaces the book with the code.
+     */
+    public void put(int code, String title) {
+        Objects.requireNonNull(title, "title");
+        byte[] utf8 = title.getBytes(StandardCharsets.UTF_8);
+
+        long slot = hash(code) & mask;
+        long firstDeleted = -1;
+        while (true) {
+            long state = index.get(ValueLayout.JAVA_LONG, slotOffset(slot));
+            if (state == EMPTY) {
+                break;
+            }
+            if (state == DELETED) {
+                if (firstDeleted < 0) {
+                    firstDeleted = slot;
+                }
+            } else if (index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 8) == code) {
+                writeSlot(slot, code, appendTitle(code, utf8), utf8.length);  // replace title
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (firstDeleted >= 0) {
+            slot = firstDeleted;   // re-use a deleted slot
+        } else {
+            long usedSlots = usedSlots();
+            if (usedSlots + 1 > slotCount * MAX_LOAD && usedSlots > size()) {
+                removeDeletedSlots();   // deleted slots use up the room: empty them and try again
+                put(code, title);
+                return;
+            }
+            if (usedSlots + 1 > slotCount * MAX_LOAD) {
+                throw new IllegalStateException("Catalogue is full (" + slotCount + " slots); create it with a larger expectedBooks");
+            }
+            index.set(ValueLayout.JAVA_LONG, USED_SLOTS_OFFSET, usedSlots + 1);
+        }
+        writeSlot(slot, code, appendTitle(code, utf8), utf8.length);
+        index.set(ValueLayout.JAVA_LONG, SIZE_OFFSET, size() + 1);
+    }
+
+    public void put(Book book) {
+        put(book.getCode(), book.getTitle());
+    }
+
+    /**
+     * Removes the book with the code.  Returns true if it was in the catalogue.
+     * (The title stays in the log, which is append-only.)
+     */
+    public boolean remove(int code) {
+        long slot = findSlot(code);
+        if (slot < 0) {
+            return false;
+        }
+        deleteSlot(slot);
+        index.set(ValueLayout.JAVA_LONG, USED_SLOTS_OFFSET, usedSlots() - 1);
+        index.set(ValueLayout.JAVA_LONG, SIZE_OFFSET, size() - 1);
+        return true;
+    }
+
+    /**
+     * Calls action for every book in the catalogue (in slot order, not code order).
+     */
+    public void forEach(IntObjConsumer<? super Book> action) {
+        for (long slot = 0; slot < slotCount; slot++) {
+            long state = index.get(ValueLayout.JAVA_LONG, slotOffset(slot));
+            if (state != EMPTY && state != DELETED) {
+                int code = index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 8);
+                action.accept(code, new Book(code, readTitle(slot)));
+            }
+        }
+    }
+
+    /**
+     * Writes all changes to disk.
+     */
+    public void flush() {
+        log.force();
+        index.force();
+    }
+
+    /**
+     * Flushes changes to disk and unmaps the files.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            long logSize = index.get(ValueLayout.JAVA_LONG, LOG_SIZE_OFFSET);
+            arena.close();              // unmap before truncating
+            logChannel.truncate(logSize);  // remove unused space reserved at the end of the log
+        } finally {
+            indexChannel.close();
+            logChannel.close();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private static long hash(int code) {
+        return HashMixers.fibonacci(code) & 0xFFFFFFFFL;
+    }
+
+    private long usedSlots() {
+        return index.get(ValueLayout.JAVA_LONG, USED_SLOTS_OFFSET);
+    }
+
+    private static long slotOffset(long slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private long findSlot(int code) {
+        long slot = hash(code) & mask;
+        while (true) {
+            long state = index.get(ValueLayout.JAVA_LONG, slotOffset(slot));
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state != DELETED && index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 8) == code) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Empties a slot, then moves later entries of the same probe run back so
+     * that none is left unreachable behind the new gap (see BookIndex.deleteSlot()).
+     * Deleted slots in the run are passed over but never moved.
+     */
+    private void deleteSlot(long gap) {
+        long slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long state = index.get(ValueLayout.JAVA_LONG, slotOffset(slot));
+            if (state == EMPTY) {
+                break;
+            }
+            if (state == DELETED) {
+                continue;
+            }
+            int code = index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 8);
+            long home = hash(code) & mask;
+            // move the entry back if its home slot is not between the gap and its current slot
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                writeSlot(gap, code, state - 1, index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 12));
+                gap = slot;
+            }
+        }
+        index.set(ValueLayout.JAVA_LONG, slotOffset(gap), EMPTY);
+    }
+
+    /**
+     * Empties the deleted slots left by older versions, which marked removed
+     * books as deleted instead of moving entries back.
+     */
+    private void removeDeletedSlots() {
+        long removed = 0;
+        for (long slot = 0; slot < slotCount; slot++) {
+            if (index.get(ValueLayout.JAVA_LONG, slotOffset(slot)) == DELETED) {
+                deleteSlot(slot);
+                removed++;
+            }
+        }
+        index.set(ValueLayout.JAVA_LONG, USED_SLOTS_OFFSET, usedSlots() - removed);
+    }
+
+    private String readTitle(long slot) {
+        long recordOffset = index.get(ValueLayout.JAVA_LONG, slotOffset(slot)) - 1;
+        int length = index.get(ValueLayout.JAVA_INT, slotOffset(slot) + 12);
+        byte[] utf8 = new byte[length];
+        MemorySegment.copy(log, ValueLayout.JAVA_BYTE, recordOffset + LOG_RECORD_HEADER, utf8, 0, length);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private void writeSlot(long slot, int code, long recordOffset, int length) {
+        long offset = slotOffset(slot);
+        index.set(ValueLayout.JAVA_INT, offset + 8, code);
+        index.set(ValueLayout.JAVA_INT, offset + 12, length);
+        index.set(ValueLayout.JAVA_LONG, offset, recordOffset + 1);  // written last: marks the slot as used
+    }
+
+    /**
+     * Appends a title record to the log and returns its offset.
+     * The log size in the header is updated before any slot points at the new
+     * record, so a slot never refers to bytes beyond the end of the log.
+     */
+    private long appendTitle(int code, byte[] utf8) {
+        long recordOffset = index.get(ValueLayout.JAVA_LONG, LOG_SIZE_OFFSET);
+        long end = recordOffset + LOG_RECORD_HEADER + utf8.length;
+        if (end > log.byteSize()) {
+            growLog(end);
+        }
+        log.set(ValueLayout.JAVA_INT_UNALIGNED, recordOffset, code);
+        log.set(ValueLayout.JAVA_INT_UNALIGNED, recordOffset + 4, utf8.length);
+        MemorySegment.copy(utf8, 0, log, ValueLayout.JAVA_BYTE, recordOffset + LOG_RECORD_HEADER, utf8.length);
+        index.set(ValueLayout.JAVA_LONG, LOG_SIZE_OFFSET, end);
+        return recordOffset;
+    }
+
+    /**
+     * A mapping cannot grow, so map the log again with double the size.
+     * The old mapping stays valid until the catalogue is closed.
+     */
+    private void growLog(long required) {
+        long capacity = log.byteSize();
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        try {
+            log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity, arena);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not grow " + logFile, e);
+        }
+    }
+}
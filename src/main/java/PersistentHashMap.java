@@ -0,0 +1,578 @@
+/**
+ * PersistentHashMap - an immutable Map where each change makes a new version, cheaply.
+ * <p>
+ * A HashMap is changed in place, so a thread reading it while another thread
+ * updates it can see a half-made change.  The usual fixes are a lock, or
+ * copying the whole map for every reader.
+ * <p>
+ * A PersistentHashMap is never changed.  with(key, value) and without(key)
+ * return a new map, and the old one stays exactly as it was.  This is cheap
+ * because the two versions share almost all of their structure:
+ * - the entries are kept in a "hash array mapped trie" (HAMT): a tree in which
+ *   each node has up to 32 children, chosen by 5 bits of the key's hash code
+ *   (the first level uses bits 0-4, the next level bits 5-9, and so on)
+ * - a node only has room for the children it actually has; a 32-bit "bitmap"
+ *   says which of the 32 possible children are present
+ * - a change copies only the nodes on the path from the root to the key
+ *   (about log32(n) nodes: 4 for a million keys); every other node is shared
+ * So any thread can keep using an old version for as long as it likes,
+ * without locks, while newer versions are being made.
+ * <p>
+ * For many changes at once, use a Builder (toBuilder()).  A builder changes
+ * the nodes it has already copied in place, instead of copying them again
+ * for every change, and build() then returns an ordinary immutable map.
+ * <p>
+ * Keys are hashed and compared with their hashCode() and equals(), or with a
+ * HashStrategy passed to the constructor (as in IncrementalHashMap); maps made
+ * from a map by with(), without() and its Builder keep its strategy.
+ * <p>
+ * Null keys and values are not allowed (as in ConcurrentHashMap).
+ * put() and remove() from the Map interface throw UnsupportedOperationException.
+ * <p>
+ * Example:
+ *   PersistentHashMap<String, String> v1 = PersistentHashMap.<String, String>empty().with("Hair", "Red");
+ *   PersistentHashMap<String, String> v2 = v1.with("Height", "1.76");   // v1 still has only "Hair"
+ */
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;                  // bits of the hash used per level
+    private static final int MASK = (1 << BITS) - 1;    // 31
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0, HashStrategy.natural());
+
+    private final Node root;   // null when the map is empty
+    private final int size;
+    private final HashStrategy<Object> strategy;
+
+    /**
+     * An empty map that hashes and compares its keys with strategy, instead of
+     * their hashCode() and equals().  A key of the wrong type makes the strategy
+     * throw ClassCastException.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistentHashMap(HashStrategy<? super K> strategy) {
+        this(null, 0, (HashStrategy<Object>) Objects.requireNonNull(strategy, "strategy"));
+    }
+
+    private PersistentHashMap(Node root, int size, HashStrategy<Object> strategy) {
+        this.root = root;
+        this.size = size;
+        this.strategy = strategy;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a PersistentHashMap with the same entries as map.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentHashMap) {
+            return (PersistentHashMap<K, V>) map;
+        }
+        Builder<K, V> builder = PersistentHashMap.<K, V>empty().toBuilder();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        return root == null || key == null ? null : (V) root.find(strategy, 0, hash(strategy, key), key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns a map with key mapped to value.  This map is not changed.
+     * If key is already mapped to that same value, returns this map.
+     */
+    public PersistentHashMap<K, V> with(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        Change change = new Change();
+        Node start = root == null ? BitmapNode.EMPTY : root;
+        Node newRoot = start.put(strategy, null, 0, hash(strategy, key), key, value, change);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, change.added ? size + 1 : size, strategy);
+    }
+
+    /**
+     * Returns a map without key.  This map is not changed.
+     * If key is not in the map, returns this map.
+     */
+    public PersistentHashMap<K, V> without(Object key) {
+        if (root == null || key == null) {
+            return this;
+        }
+        Change change = new Change();
+        Node newRoot = root.remove(strategy, null, 0, hash(strategy, key), key, change);
+        if (!change.removed) {
+            return this;
+        }
+        return new PersistentHashMap<>(newRoot, size - 1, strategy);
+    }
+
+    /**
+     * Returns a Builder that starts with this map's entries.
+     */
+    public Builder<K, V> toBuilder() {
+        return new Builder<>(root, size, strategy);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach((BiConsumer<Object, Object>) action);
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Mixes the bits of the key's hash (as BookIndex does), so that keys whose hash
+     * codes differ only in the high bits still split at the top of the trie.
+     */
+    private static int hash(HashStrategy<Object> strategy, Object key) {
+        return HashMixers.fibonacci(strategy.hash(key));
+    }
+
+    private static int bitFor(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * Makes many changes to a map without copying nodes over and over.
+     * Nodes created by this builder belong to it (they hold its "owner" token)
+     * and are changed in place; shared nodes are copied the first time they change.
+     * After build(), the builder takes a new owner token, so the built map is never
+     * changed by later edits.  Not thread-safe.
+     */
+    public static final class Builder<K, V> {
+        private final HashStrategy<Object> strategy;
+        private Object owner = new Object();
+        private Node root;
+        private int size;
+
+        private Builder(Node root, int size, HashStrategy<Object> strategy) {
+            this.root = root;
+            this.size = size;
+            this.strategy = strategy;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            return root == null || key == null ? null : (V) root.find(strategy, 0, hash(strategy, key), key);
+        }
+
+        /**
+         * Maps key to value, and returns the previous value (or null).
+         */
+        @SuppressWarnings("unchecked")
+        public V put(K key, V value) {
+            Objects.requireNonNull(key, "key");
+            Objects.requireNonNull(value, "value");
+            Change change = new Change();
+            Node start = root == null ? BitmapNode.EMPTY : root;
+            root = start.put(strategy, owner, 0, hash(strategy, key), key, value, change);
+            if (change.added) {
+                size++;
+            }
+            return (V) change.oldValue;
+        }
+
+        /**
+         * Removes key, and returns its value (or null if it was not there).
+         */
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            if (root == null || key == null) {
+                return null;
+            }
+            Change change = new Change();
+            root = root.remove(strategy, owner, 0, hash(strategy, key), key, change);
+            if (change.removed) {
+                size--;
+            }
+            return (V) change.oldValue;
+        }
+
+        /**
+         * Returns an immutable map with the builder's entries.
+         * The builder can still be used afterwards; it does not change the returned map.
+         */
+        public PersistentHashMap<K, V> build() {
+            owner = new Object();
+            return new PersistentHashMap<>(root, size, strategy);
+        }
+    }
+
+    /** What a put() or remove() did, reported back up the tree. */
+    private static final class Change {
+        boolean added;
+        boolean removed;
+        Object oldValue;
+    }
+
+    // ---------------------------------------------------------------------
+    // trie nodes
+
+    private abstract static class Node {
+        /**
+         * The builder that created this node and may change it in place, or null
+         * if nobody may (the node may be shared by several maps).
+         */
+        final Object owner;
+
+        /**
+         * Key/value pairs: array[2i] is a key and array[2i + 1] its value.
+         * In a BitmapNode, a null key means array[2i + 1] is a child Node.
+         */
+        Object[] array;
+
+        Node(Object owner, Object[] array) {
+            this.owner = owner;
+            this.array = array;
+        }
+
+        boolean ownedBy(Object editor) {
+            return editor != null && owner == editor;
+        }
+
+        abstract Object find(HashStrategy<Object> strategy, int shift, int hash, Object key);
+
+        abstract Node put(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key, Object value,
+                          Change change);
+
+        /** Returns the node without key, or null if that leaves the node empty. */
+        abstract Node remove(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key,
+                             Change change);
+
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A node with up to 32 entries, one for each value of the 5 hash bits at
+     * this level.  Each entry is either a key/value pair or a child node.
+     */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        int bitmap;   // bit b is set if there is an entry for hash bits b
+
+        BitmapNode(Object owner, int bitmap, Object[] array) {
+            super(owner, array);
+            this.bitmap = bitmap;
+        }
+
+        /** Position of the entry for bit in array (in pairs): the number of entries before it. */
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(HashStrategy<Object> strategy, int shift, int hash, Object key) {
+            int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                return ((Node) v).find(strategy, shift + BITS, hash, key);
+            }
+            return strategy.equals(key, k) ? v : null;
+        }
+
+        @Override
+        Node put(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key, Object value,
+                 Change change) {
+            int bit = bitFor(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                // no entry for these hash bits yet: insert a key/value pair
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, i);
+                newArray[i] = key;
+                newArray[i + 1] = value;
+                System.arraycopy(array, i, newArray, i + 2, array.length - i);
+                change.added = true;
+                if (ownedBy(editor)) {
+                    bitmap |= bit;
+                    array = newArray;
+                    return this;
+                }
+                return new BitmapNode(editor, bitmap | bit, newArray);
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = (Node) v;
+                Node newChild = child.put(strategy, editor, shift + BITS, hash, key, value, change);
+                return newChild == child ? this : set(editor, i + 1, newChild);
+            }
+            if (strategy.equals(key, k)) {
+                change.oldValue = v;
+                return v == value ? this : set(editor, i + 1, value);
+            }
+            // another key has the same hash bits at this level: push both down a level
+            change.added = true;
+            Node child = twoEntryNode(strategy, editor, shift + BITS, k, v, hash, key, value);
+            BitmapNode result = (BitmapNode) set(editor, i, null);
+            result.array[i + 1] = child;
+            return result;
+        }
+
+        @Override
+        Node remove(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key, Change change) {
+            int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * index(bit);
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = (Node) v;
+                Node newChild = child.remove(strategy, editor, shift + BITS, hash, key, change);
+                if (newChild == child) {
+                    return this;
+                }
+                if (newChild != null) {
+                    return set(editor, i + 1, newChild);
+                }
+            } else if (strategy.equals(key, k)) {
+                change.removed = true;
+                change.oldValue = v;
+            } else {
+                return this;
+            }
+            // remove entry i
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            if (ownedBy(editor)) {
+                bitmap ^= bit;
+                array = newArray;
+                return this;
+            }
+            return new BitmapNode(editor, bitmap ^ bit, newArray);
+        }
+
+        /** This node with array[i] = x: changed in place if the editor owns it, otherwise a copy. */
+        private Node set(Object editor, int i, Object x) {
+            if (ownedBy(editor)) {
+                array[i] = x;
+                return this;
+            }
+            Object[] newArray = array.clone();
+            newArray[i] = x;
+            return new BitmapNode(editor, bitmap, newArray);
+        }
+
+        private static Node twoEntryNode(HashStrategy<Object> strategy, Object editor, int shift,
+                                         Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = hash(strategy, key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(editor, hash1, new Object[]{key1, value1, key2, value2});
+            }
+            // hash1 != hash2, so they differ at some level at or below this one (at most 7 levels)
+            Change ignored = new Change();
+            return EMPTY.put(strategy, editor, shift, hash1, key1, value1, ignored)
+                    .put(strategy, editor, shift, hash2, key2, value2, ignored);
+        }
+    }
+
+    /**
+     * Keys whose (mixed) hash codes are exactly equal: kept in a simple list of pairs.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(Object owner, int hash, Object[] array) {
+            super(owner, array);
+            this.hash = hash;
+        }
+
+        private int indexOf(HashStrategy<Object> strategy, Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (strategy.equals(key, array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(HashStrategy<Object> strategy, int shift, int hash, Object key) {
+            if (hash != this.hash) {
+                return null;
+            }
+            int i = indexOf(strategy, key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        @Override
+        Node put(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key, Object value,
+                 Change change) {
+            if (hash != this.hash) {
+                // a different hash: put this node below a bitmap node, next to the new key
+                BitmapNode parent = new BitmapNode(editor, bitFor(this.hash, shift), new Object[]{null, this});
+                return parent.put(strategy, editor, shift, hash, key, value, change);
+            }
+            int i = indexOf(strategy, key);
+            if (i >= 0) {
+                change.oldValue = array[i + 1];
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                if (ownedBy(editor)) {
+                    array[i + 1] = value;
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(editor, hash, newArray);
+            }
+            change.added = true;
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            if (ownedBy(editor)) {
+                array = newArray;
+                return this;
+            }
+            return new CollisionNode(editor, hash, newArray);
+        }
+
+        @Override
+        Node remove(HashStrategy<Object> strategy, Object editor, int shift, int hash, Object key, Change change) {
+            int i = hash == this.hash ? indexOf(strategy, key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            change.removed = true;
+            change.oldValue = array[i + 1];
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            if (ownedBy(editor)) {
+                array = newArray;
+                return this;
+            }
+            return new CollisionNode(editor, hash, newArray);
+        }
+    }
+
+    /**
+     * Walks the trie depth first, keeping the path from the root on a stack.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        private final Object[][] arrays = new Object[8][];   // at most 7 levels + collision node
+        private final int[] positions = new int[8];
+        private int depth = -1;
+        private Entry<K, V> next;
+
+        EntryIterator(Node root) {
+            if (root != null) {
+                push(root);
+                advance();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> result = next;
+            advance();
+            return result;
+        }
+
+        private void push(Node node) {
+            depth++;
+            arrays[depth] = node.array;
+            positions[depth] = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int i = positions[depth];
+                if (i == array.length) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) {
+                    push((Node) array[i + 1]);
+                } else {
+                    next = new SimpleImmutableEntry<>((K) array[i], (V) array[i + 1]);
+                    return;
+                }
+            }
+            next = null;
+        }
+    }
+}
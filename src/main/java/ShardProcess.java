@@ -0,0 +1,92 @@
+/**
+ * ShardProcess - starts a BookLookupServer in a separate JVM on this machine, to act as a remote shard.
+ * <p>
+ * The new JVM runs BookLookupServer.main() with the same java command and
+ * classpath as this JVM, on a free loopback port.  start() waits until the
+ * server prints that it is listening, and reads the port from that line.
+ * The server stops when close() is called, and also when this JVM exits
+ * (it stops when its standard input, which comes from this JVM, is closed).
+ * <p>
+ * Example:
+ *   try (ShardProcess process = ShardProcess.start()) {
+ *       CatalogueShard shard = new ShardedCatalogue.RemoteShard(process.port());
+ *       ...
+ *   }
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ShardProcess implements AutoCloseable {
+
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    private final Process process;
+    private final int port;
+
+    private ShardProcess(Process process, int port) {
+        this.process = process;
+        this.port = port;
+    }
+
+    /**
+     * Starts a new JVM running a BookLookupServer, and waits until it is ready.
+     */
+    public static ShardProcess start() throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = List.of(java, "-cp", System.getProperty("java.class.path"),
+                BookLookupServer.class.getName(), "0");
+        Process process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            BufferedReader output = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (line.startsWith(BookLookupServer.READY_MESSAGE)) {
+                    int port = Integer.parseInt(line.substring(BookLookupServer.READY_MESSAGE.length()).trim());
+                    return new ShardProcess(process, port);
+                }
+            }
+            throw new IOException("Shard process exited before it was ready");
+        } catch (IOException | RuntimeException e) {
+            process.destroyForcibly();
+            throw e;
+        }
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public long pid() {
+        return process.pid();
+    }
+
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    /**
+     * Stops the server JVM: closes its input so that it shuts down cleanly,
+     * and kills it if it has not stopped after a few seconds.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            process.getOutputStream().close();
+            if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
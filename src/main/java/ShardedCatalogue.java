@@ -0,0 +1,484 @@
+/**
+ * ShardedCatalogue - a code => Book catalogue split over several shards, which may be in other JVMs.
+ * <p>
+ * Every other demo keeps the whole catalogue in one Map<Integer, Book> in one
+ * JVM heap.  When the catalogue is too big for one heap, it can be split into
+ * "shards" (partitions), each holding some of the books:
+ * - a ConsistentHashRing decides which shard holds each book code
+ * - each book is also copied to the next replicationFactor - 1 shards on the
+ *   ring ("replicas"), so it can still be read if one shard is down
+ * - get() reads from the book's first shard, or (with readFromReplicas) from a
+ *   randomly chosen replica to spread the reads; if that shard fails, the
+ *   other replicas are tried
+ * - put() and remove() change every replica
+ * - getShortTitledBooks() asks every shard at the same time ("scatter") and
+ *   joins the answers ("gather"), keeping each book only from its first shard,
+ *   so replicated books are not listed twice.  If a shard fails, its books are
+ *   taken from their next replica instead; the scan only fails if every
+ *   replica of some books has failed
+ * - addShard() "rebalances": the new shard is given the books it now owns
+ *   (about 1/N of them), and shards that no longer hold a copy delete theirs.
+ *   The books are read from each shard a page at a time (CatalogueShard.scan()),
+ *   so they never all have to fit in this JVM's heap
+ * <p>
+ * Shards can be LocalShards (a ConcurrentHashMap in this JVM) or RemoteShards
+ * (a BookLookupServer in another JVM, reached over a loopback socket; see ShardProcess).
+ * <p>
+ * Reads and writes can run in parallel; addShard() waits for them to finish
+ * and blocks them while it moves books, so it never sees a half-moved catalogue.
+ * Writes are not atomic across replicas: if one replica fails, the others are
+ * still changed and an IOException is thrown.
+ * <p>
+ * Example:
+ *   ShardedCatalogue catalogue = new ShardedCatalogue(2, false);   // 2 copies of each book
+ *   catalogue.addShard("a", new ShardedCatalogue.LocalShard());
+ *   catalogue.addShard("b", new ShardedCatalogue.RemoteShard(ShardProcess.start().port()));
+ *   catalogue.put(new Book(30004, "Fight Club"));
+ */
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ShardedCatalogue implements AutoCloseable {
+
+    private static final int SCAN_PAGE_SIZE = 1000;   // books per page when addShard() reads a whole shard
+
+    private final int replicationFactor;
+    private final boolean readFromReplicas;
+    private ConsistentHashRing ring = new ConsistentHashRing();   // replaced (under the write lock) by addShard()
+    private final Map<String, CatalogueShard> shards = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService scatter = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * @param replicationFactor how many shards keep a copy of each book
+     * @param readFromReplicas  true to spread get() over all copies, false to read the first copy
+     */
+    public ShardedCatalogue(int replicationFactor, boolean readFromReplicas) {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("replicationFactor must be at least 1: " + replicationFactor);
+        }
+        this.replicationFactor = replicationFactor;
+        this.readFromReplicas = readFromReplicas;
+    }
+
+    /**
+     * Adds a shard and moves to it the books it now owns.  Returns the number of books copied to it.
+     * <p>
+     * The books are copied before the new shard is added to the ring, so if copying
+     * fails (IOException) the catalogue is left as it was, and the new shard can be
+     * closed or added again.  After the shard is added, the copies that other shards
+     * no longer need are deleted; if that fails, an IOException is thrown but the shard
+     * stays added (the left-over copies are never read, and are deleted when overwritten).
+     */
+    public int addShard(String name, CatalogueShard shard) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (shards.containsKey(name)) {
+                throw new IllegalArgumentException("Shard already added: " + name);
+            }
+            ConsistentHashRing newRing = ring.copy();
+            newRing.addShard(name);
+            int copied = 0;
+            for (CatalogueShard existing : shards.values()) {
+                CatalogueShard.Scan scan = existing.scan(SCAN_PAGE_SIZE);
+                for (List<Book> page = scan.nextPage(); !page.isEmpty(); page = scan.nextPage()) {
+                    for (Book book : page) {
+                        if (newRing.replicasFor(book.getCode(), replicationFactor).contains(name)
+                                && shard.put(book) == null) {
+                            copied++;
+                        }
+                    }
+                }
+            }
+            Map<String, CatalogueShard> existing = new HashMap<>(shards);
+            ring = newRing;
+            shards.put(name, shard);
+            IOException failure = null;
+            for (Map.Entry<String, CatalogueShard> entry : existing.entrySet()) {
+                try {
+                    removeCopiesNotKept(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    failure = addFailure(failure, entry.getKey(), e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return copied;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes from a shard the books of which the ring no longer gives it a copy.
+     */
+    private void removeCopiesNotKept(String name, CatalogueShard shard) throws IOException {
+        CatalogueShard.Scan scan = shard.scan(SCAN_PAGE_SIZE);
+        for (List<Book> page = scan.nextPage(); !page.isEmpty(); page = scan.nextPage()) {
+            for (Book book : page) {
+                if (!ring.replicasFor(book.getCode(), replicationFactor).contains(name)) {
+                    shard.remove(book.getCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Fraction of the keys owned by each shard as first replica (see ConsistentHashRing.shares()).
+     */
+    public Map<String, Double> keyShares() {
+        lock.readLock().lock();
+        try {
+            return ring.shares();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Set<String> shardNames() {
+        lock.readLock().lock();
+        try {
+            return new TreeSet<>(shards.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Book get(int code) throws IOException {
+        lock.readLock().lock();
+        try {
+            List<String> replicas = ring.replicasFor(code, replicationFactor);
+            int first = readFromReplicas ? ThreadLocalRandom.current().nextInt(replicas.size()) : 0;
+            IOException failure = null;
+            for (int i = 0; i < replicas.size(); i++) {
+                String name = replicas.get((first + i) % replicas.size());
+                try {
+                    return shards.get(name).get(code);
+                } catch (IOException e) {
+                    failure = addFailure(failure, name, e);    // try the next replica
+                }
+            }
+            throw failure;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean containsKey(int code) throws IOException {
+        return get(code) != null;
+    }
+
+    /**
+     * Adds or replaces the book on all its replicas.  Returns the book it replaced
+     * on the first replica that answered (or null).
+     */
+    public Book put(Book book) throws IOException {
+        lock.readLock().lock();
+        try {
+            Book previous = null;
+            IOException failure = null;
+            for (String name : ring.replicasFor(book.getCode(), replicationFactor)) {
+                try {
+                    Book replaced = shards.get(name).put(book);
+                    if (previous == null) {
+                        previous = replaced;
+                    }
+                } catch (IOException e) {
+                    failure = addFailure(failure, name, e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return previous;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the book from all its replicas.  Returns the removed book (or null).
+     */
+    public Book remove(int code) throws IOException {
+        lock.readLock().lock();
+        try {
+            Book removed = null;
+            IOException failure = null;
+            for (String name : ring.replicasFor(code, replicationFactor)) {
+                try {
+                    Book book = shards.get(name).remove(code);
+                    if (removed == null) {
+                        removed = book;
+                    }
+                } catch (IOException e) {
+                    failure = addFailure(failure, name, e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return removed;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same result as AppMainMapsDemo.getShortTitledBooks(), in no particular order.
+     * All shards are scanned at the same time.  Each book is taken from the first of
+     * its replicas that answered, so the scan still works while a shard is down,
+     * as long as every book has a replica on a shard that answered.
+     */
+    public List<Book> getShortTitledBooks(int maxLengthOfTitle) throws IOException {
+        lock.readLock().lock();
+        try {
+            Map<String, Future<List<Book>>> answers = new HashMap<>();
+            for (Map.Entry<String, CatalogueShard> entry : shards.entrySet()) {
+                CatalogueShard shard = entry.getValue();
+                answers.put(entry.getKey(), scatter.submit(() -> shard.shortTitledBooks(maxLengthOfTitle)));
+            }
+            Map<String, List<Book>> found = new HashMap<>();
+            IOException failure = null;
+            for (Map.Entry<String, Future<List<Book>>> answer : answers.entrySet()) {
+                try {
+                    found.put(answer.getKey(), await(answer.getKey(), answer.getValue()));
+                } catch (IOException e) {
+                    failure = addFailure(failure, answer.getKey(), e);
+                }
+            }
+            if (failure != null && !ring.everyKeyHasReplicaIn(found.keySet(), replicationFactor)) {
+                throw failure;   // some books only had copies on shards that failed
+            }
+            List<Book> result = new ArrayList<>();
+            for (Map.Entry<String, List<Book>> answer : found.entrySet()) {
+                for (Book book : answer.getValue()) {
+                    if (firstAnswered(book.getCode(), found.keySet()).equals(answer.getKey())) {
+                        result.add(book);   // only one copy of each book
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of books stored in each shard (copies included).
+     */
+    public Map<String, Integer> shardSizes() throws IOException {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> sizes = new TreeMap<>();
+            for (Map.Entry<String, CatalogueShard> entry : shards.entrySet()) {
+                sizes.put(entry.getKey(), entry.getValue().size());
+            }
+            return sizes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes every shard (remote shards close their connections).
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            scatter.shutdown();
+            IOException failure = null;
+            for (Map.Entry<String, CatalogueShard> entry : shards.entrySet()) {
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    failure = addFailure(failure, entry.getKey(), e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    private static IOException addFailure(IOException failure, String shard, IOException e) {
+        IOException wrapped = new IOException("Shard " + shard + " failed: " + e.getMessage(), e);
+        if (failure == null) {
+            return wrapped;
+        }
+        failure.addSuppressed(wrapped);
+        return failure;
+    }
+
+    /** The first of the key's replicas that is in answered (the primary, if nothing failed). */
+    private String firstAnswered(int code, Set<String> answered) {
+        if (answered.size() == shards.size()) {
+            return ring.shardFor(code);
+        }
+        for (String name : ring.replicasFor(code, replicationFactor)) {
+            if (answered.contains(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static List<Book> await(String shard, Future<List<Book>> answer) throws IOException {
+        try {
+            return answer.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause().toString(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for shard " + shard, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * A shard in this JVM.
+     */
+    public static class LocalShard implements CatalogueShard {
+        private final ConcurrentHashMap<Integer, Book> books = new ConcurrentHashMap<>();
+
+        @Override
+        public Book get(int code) {
+            return books.get(code);
+        }
+
+        @Override
+        public Book put(Book book) {
+            return books.put(book.getCode(), book);
+        }
+
+        @Override
+        public Book remove(int code) {
+            return books.remove(code);
+        }
+
+        @Override
+        public boolean containsKey(int code) {
+            return books.containsKey(code);
+        }
+
+        @Override
+        public List<Book> shortTitledBooks(int maxTitleLength) {
+            return BookFilters.filter(books, BookFilters.titleNoLongerThan(maxTitleLength));
+        }
+
+        @Override
+        public int size() {
+            return books.size();
+        }
+
+        @Override
+        public Scan scan(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be at least 1: " + pageSize);
+            }
+            Iterator<Book> iterator = books.values().iterator();   // weakly consistent: allows changes between pages
+            return () -> {
+                List<Book> page = new ArrayList<>();
+                while (page.size() < pageSize && iterator.hasNext()) {
+                    page.add(iterator.next());
+                }
+                return page;
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A shard in another JVM: a BookLookupServer, reached over one connection.
+     * The connection is shared by all threads, one request at a time.
+     */
+    public static class RemoteShard implements CatalogueShard {
+        private final BookLookupClient client;
+
+        /**
+         * Connects to a BookLookupServer on this machine.
+         */
+        public RemoteShard(int port) throws IOException {
+            this.client = new BookLookupClient(port);
+        }
+
+        @Override
+        public synchronized Book get(int code) throws IOException {
+            return client.getBook(code);
+        }
+
+        @Override
+        public synchronized Book put(Book book) throws IOException {
+            return client.putBook(book);
+        }
+
+        @Override
+        public synchronized Book remove(int code) throws IOException {
+            return client.removeBook(code);
+        }
+
+        @Override
+        public synchronized boolean containsKey(int code) throws IOException {
+            return client.containsBook(code);
+        }
+
+        @Override
+        public synchronized List<Book> shortTitledBooks(int maxTitleLength) throws IOException {
+            return client.scanShortTitledBooks(maxTitleLength);
+        }
+
+        @Override
+        public synchronized int size() throws IOException {
+            return client.bookCount();
+        }
+
+        /**
+         * The scan is kept by the server, per connection, so other requests on this
+         * shard can be sent between pages, but a second scan() ends the first.
+         */
+        @Override
+        public Scan scan(int pageSize) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be at least 1: " + pageSize);
+            }
+            return new Scan() {
+                private boolean started;
+                private boolean finished;
+
+                @Override
+                public List<Book> nextPage() throws IOException {
+                    if (finished) {
+                        return new ArrayList<>();
+                    }
+                    List<Book> page;
+                    synchronized (RemoteShard.this) {
+                        page = started ? client.nextScanPage(pageSize) : client.startScan(pageSize);
+                    }
+                    started = true;
+                    finished = page.size() < pageSize;
+                    return page;
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            client.close();
+        }
+    }
+}
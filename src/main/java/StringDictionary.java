@@ -0,0 +1,87 @@
+/**
+ * StringDictionary - gives each distinct String a small int id (0, 1, 2, ...).
+ * <p>
+ * This is called "dictionary encoding".  When the same Strings appear many
+ * times (names, attribute values such as "Red" or "1.76"), we can store the
+ * int id everywhere instead of a reference to the String, and keep each
+ * distinct String only once, here.
+ * <p>
+ * idOf() looks up a String using open addressing (see BookIndex), so no
+ * Integer or HashMap.Node objects are created.  Ids are never removed.
+ */
+
+import java.util.Arrays;
+import java.util.Objects;
+
+public class StringDictionary {
+
+    private String[] strings = new String[16];  // strings[id]
+    private int size;
+
+    private int[] table = new int[32];  // hash table of id + 1 (0 = empty slot)
+    private int mask = table.length - 1;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id of s, adding s to the dictionary if it is not already in it.
+     */
+    public int add(String s) {
+        Objects.requireNonNull(s, "s");
+        int slot = HashMixers.fibonacci(s.hashCode()) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (strings[entry - 1].equals(s)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = size++;
+        if (id == strings.length) {
+            strings = Arrays.copyOf(strings, id * 2);
+        }
+        strings[id] = s;
+        table[slot] = id + 1;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of s, or -1 if s is not in the dictionary.
+     */
+    public int idOf(String s) {
+        int slot = HashMixers.fibonacci(s.hashCode()) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (strings[entry - 1].equals(s)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the String with the given id.
+     */
+    public String get(int id) {
+        Objects.checkIndex(id, size);
+        return strings[id];
+    }
+
+    private void rehash(int newLength) {
+        table = new int[newLength];
+        mask = newLength - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = HashMixers.fibonacci(strings[id].hashCode()) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+}
@@ -62,6 +62,9 @@ public class Student {
         return id;
     }
 
+    // WARNING: do not call setId() or setName() on a Student that is a key in a
+    // HashMap (or TreeMap). Its hashCode() changes, and the map can no longer
+    // find the entry. Use an immutable StudentKey as the key instead (see toKey()).
     public void setId(int id)
     {
         this.id = id;
@@ -75,5 +78,14 @@ public class Student {
     public void setName(String name)
     {
         this.name = name;
-    }   
+    }
+
+    /**
+     * Returns an immutable key with this Student's current id and name,
+     * for use as a Map key instead of the Student itself.
+     */
+    public StudentKey toKey()
+    {
+        return StudentKey.of(this);
+    }
 }
@@ -0,0 +1,99 @@
+/**
+ * StudentKey - an immutable version of Student, designed to be used as a Map key.
+ * <p>
+ * Student has setId() and setName().  If a Student is changed after it has been
+ * put into a HashMap, its hashCode() changes, and the map can no longer find
+ * the entry (it is stored in the bucket for the old hash code).  The map is
+ * silently corrupted.  StudentKey has final fields and no setters, so this
+ * cannot happen.
+ * <p>
+ * Student.hashCode() calls Objects.hash(id, name), which creates an Object[]
+ * and an Integer every time it is called.  Because a StudentKey can never
+ * change, we calculate its hash code once, in the constructor, and keep it.
+ * <p>
+ * equals() first compares the cached hash codes and ids (cheap int comparisons)
+ * and only compares the names (a String comparison) when those match.
+ * <p>
+ * Migrating from Student:
+ *   Map<StudentKey, Book> favouriteBook = new HashMap<>();
+ *   favouriteBook.put(student.toKey(), book);      // or StudentKey.of(student)
+ * To "change" a key, remove the old entry and put it again with a new key:
+ *   Book book = favouriteBook.remove(key);
+ *   favouriteBook.put(key.withName("New Name"), book);
+ */
+
+import java.util.Objects;
+
+public final class StudentKey {
+
+    private final int id;
+    private final String name;
+    private final int hash;   // calculated once in the constructor
+
+    public StudentKey(int id, String name) {
+        this.id = id;
+        this.name = Objects.requireNonNull(name, "name");
+        // same value as Objects.hash(id, name), but without creating an Object[]
+        this.hash = 31 * (31 + id) + name.hashCode();
+    }
+
+    /**
+     * Creates a key from the current id and name of a (mutable) Student.
+     */
+    public static StudentKey of(Student student) {
+        return new StudentKey(student.getId(), student.getName());
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a new key with a different id (this key is not changed).
+     */
+    public StudentKey withId(int newId) {
+        return new StudentKey(newId, name);
+    }
+
+    /**
+     * Returns a new key with a different name (this key is not changed).
+     */
+    public StudentKey withName(String newName) {
+        return new StudentKey(id, newName);
+    }
+
+    /**
+     * Returns a new mutable Student with the same id and name.
+     */
+    public Student toStudent() {
+        return new Student(id, name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StudentKey)) {   // class is final, so instanceof is enough
+            return false;
+        }
+        StudentKey other = (StudentKey) obj;
+        return hash == other.hash
+                && id == other.id
+                && name.equals(other.name);
+    }
+
+    @Override
+    public String toString() {
+        return "Student{" + "id=" + id + ", name=" + name + '}';
+    }
+}
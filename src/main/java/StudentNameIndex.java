@@ -0,0 +1,582 @@
+/**
+ * StudentNameIndex - a sorted map of Student => Book, ordered by name and then id (a B+tree).
+ * <p>
+ * map9() uses a TreeMap ordered by name.  That has two problems:
+ * - The TreeMap is keyed only by name, so two different students with the same
+ *   name are treated as the same key, and one of them is lost.  This index
+ *   orders by (name, id), so both are kept.
+ * - A TreeMap has one node object per student, and a get() has to follow about
+ *   log2(n) references to nodes spread all over the heap.
+ * <p>
+ * A B+tree keeps up to 64 entries in each node instead of one:
+ * - "leaf" nodes hold the entries, sorted.  The names in a leaf are packed one
+ *   after another into a single char[] "page", with the start of each name in an
+ *   int[], so a leaf of 64 students is a handful of arrays, not 64 objects.
+ * - "inner" nodes hold the first key of each child, to find the right leaf.
+ * - each leaf has a link to the next leaf, so a range scan (e.g. all names
+ *   starting with "Ad") finds the first leaf and then just walks along the leaves.
+ * <p>
+ * Names are compared char by char directly in the page, giving the same order
+ * as String.compareTo() (and ComparatorStudentName); no Strings are created
+ * except for the entries returned.
+ * <p>
+ * remove() does not merge leaves that become small; the tree stays correct
+ * but may use more space than needed after many removals.  Not thread-safe.
+ */
+
+import java.util.*;
+import java.util.function.BiConsumer;
+
+public class StudentNameIndex {
+
+    private static final int MAX_ENTRIES = 64;     // entries per leaf
+    private static final int MAX_CHILDREN = 64;    // children per inner node
+
+    private Node root = new Leaf();
+    private Leaf firstLeaf = (Leaf) root;
+    private int size;
+
+    private Book previousValue;   // set by insert(), returned by put()
+
+    /**
+     * Builds an index from a map like the one in map7() (entries are sorted first).
+     */
+    public static StudentNameIndex from(Map<Student, Book> favouriteBook) {
+        List<Map.Entry<StudentKey, Book>> entries = new ArrayList<>(favouriteBook.size());
+        for (Map.Entry<Student, Book> entry : favouriteBook.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey().toKey(), entry.getValue()));
+        }
+        entries.sort(Map.Entry.comparingByKey(FavouriteBookRegistry.BY_NAME));
+        return bulkLoad(entries);
+    }
+
+    /**
+     * Builds an index from entries that are already sorted by (name, id), by filling
+     * leaves one after another.  This is much faster than put() for each entry,
+     * and leaves every leaf full.
+     *
+     * @throws IllegalArgumentException if the entries are not sorted, or contain the same key twice
+     */
+    public static StudentNameIndex bulkLoad(List<? extends Map.Entry<StudentKey, Book>> sortedEntries) {
+        StudentNameIndex index = new StudentNameIndex();
+        if (sortedEntries.isEmpty()) {
+            return index;
+        }
+
+        // 1. fill the leaves
+        List<Node> level = new ArrayList<>();
+        List<StudentKey> firstKeys = new ArrayList<>();
+        Leaf leaf = null;
+        StudentKey previous = null;
+        for (Map.Entry<StudentKey, Book> entry : sortedEntries) {
+            StudentKey key = entry.getKey();
+            if (previous != null && FavouriteBookRegistry.BY_NAME.compare(previous, key) >= 0) {
+                throw new IllegalArgumentException("Entries are not sorted by (name, id) at " + key);
+            }
+            if (leaf == null || leaf.count == MAX_ENTRIES) {
+                Leaf next = new Leaf();
+                if (leaf != null) {
+                    leaf.next = next;
+                }
+                leaf = next;
+                level.add(leaf);
+                firstKeys.add(key);
+            }
+            leaf.insertAt(leaf.count, key.getName(), key.getId(), Objects.requireNonNull(entry.getValue(), "book"));
+            previous = key;
+        }
+        index.firstLeaf = (Leaf) level.get(0);
+        index.size = sortedEntries.size();
+
+        // 2. build each level of inner nodes above, until there is only one node
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            List<StudentKey> parentFirstKeys = new ArrayList<>();
+            for (int start = 0; start < level.size(); start += MAX_CHILDREN) {
+                int end = Math.min(start + MAX_CHILDREN, level.size());
+                Inner inner = new Inner();
+                inner.children[0] = level.get(start);
+                for (int i = start + 1; i < end; i++) {
+                    inner.separatorNames[i - start - 1] = firstKeys.get(i).getName();
+                    inner.separatorIds[i - start - 1] = firstKeys.get(i).getId();
+                    inner.children[i - start] = level.get(i);
+                }
+                inner.count = end - start;
+                parents.add(inner);
+                parentFirstKeys.add(firstKeys.get(start));
+            }
+            level = parents;
+            firstKeys = parentFirstKeys;
+        }
+        index.root = level.get(0);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the Book for the student with this name and id, or null.
+     */
+    public Book get(String name, int id) {
+        Leaf leaf = findLeaf(name, id);
+        int i = leaf.lowerBound(name, id);
+        return i < leaf.count && leaf.compare(i, name, id) == 0 ? leaf.books[i] : null;
+    }
+
+    public Book get(StudentKey student) {
+        return get(student.getName(), student.getId());
+    }
+
+    public boolean containsKey(StudentKey student) {
+        return get(student) != null;
+    }
+
+    /**
+     * Adds or replaces the Book for a student.  Returns the previous Book, or null.
+     */
+    public Book put(StudentKey student, Book book) {
+        Objects.requireNonNull(book, "book");
+        previousValue = null;
+        Split split = insert(root, student.getName(), student.getId(), book);
+        if (split != null) {   // the root was split: grow the tree by one level
+            Inner newRoot = new Inner();
+            newRoot.children[0] = root;
+            newRoot.separatorNames[0] = split.name;
+            newRoot.separatorIds[0] = split.id;
+            newRoot.children[1] = split.right;
+            newRoot.count = 2;
+            root = newRoot;
+        }
+        if (previousValue == null) {
+            size++;
+        }
+        return previousValue;
+    }
+
+    public Book put(Student student, Book book) {
+        return put(student.toKey(), book);
+    }
+
+    /**
+     * Looks up a whole batch of students: out[i] is set to the Book for students[i], or null.
+     * Returns how many of the students were found.
+     * <p>
+     * The students are visited in (name, id) order (they are sorted first, unless
+     * they already are).  Then most lookups find their entry in the same leaf as
+     * the previous one, or in the next leaf, without searching down from the
+     * root again.  So a batch sorted by the caller is the fastest.
+     */
+    public int getAll(StudentKey[] students, Book[] out) {
+        if (out.length < students.length) {
+            throw new IllegalArgumentException("out is shorter than students: " + out.length + " < " + students.length);
+        }
+        int found = 0;
+        Leaf leaf = null;
+        for (int k : sortedOrder(students)) {
+            String name = students[k].getName();
+            int id = students[k].getId();
+            if (leaf == null || leaf.count == 0 || leaf.compare(leaf.count - 1, name, id) < 0) {
+                // past the end of this leaf: try the next leaf, otherwise search from the root
+                Leaf next = leaf == null ? null : leaf.next;
+                leaf = next != null && next.count > 0 && next.compare(next.count - 1, name, id) >= 0
+                        ? next : findLeaf(name, id);
+            }
+            int i = leaf.lowerBound(name, id);
+            Book book = i < leaf.count && leaf.compare(i, name, id) == 0 ? leaf.books[i] : null;
+            out[k] = book;
+            if (book != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Adds or replaces a whole batch: books[i] becomes the Book for students[i].
+     * The entries are inserted in (name, id) order, so the nodes on the path to
+     * each leaf are usually still in the CPU cache from the previous insert.
+     */
+    public void putAll(StudentKey[] students, Book[] books) {
+        if (books.length < students.length) {
+            throw new IllegalArgumentException("books is shorter than students: " + books.length + " < " + students.length);
+        }
+        for (int i = 0; i < students.length; i++) {
+            Objects.requireNonNull(books[i], "book");
+        }
+        for (int k : sortedOrder(students)) {
+            put(students[k], books[k]);
+        }
+    }
+
+    /**
+     * Removes a student.  Returns their Book, or null if they were not in the index.
+     */
+    public Book remove(StudentKey student) {
+        Leaf leaf = findLeaf(student.getName(), student.getId());
+        int i = leaf.lowerBound(student.getName(), student.getId());
+        if (i == leaf.count || leaf.compare(i, student.getName(), student.getId()) != 0) {
+            return null;
+        }
+        Book removed = leaf.books[i];
+        leaf.removeAt(i);
+        size--;
+        return removed;
+    }
+
+    /**
+     * Returns all entries whose name starts with prefix, in (name, id) order,
+     * e.g. withNamePrefix("Ad") finds "Adam Ant" and "Adele".
+     */
+    public List<Map.Entry<StudentKey, Book>> withNamePrefix(String prefix) {
+        List<Map.Entry<StudentKey, Book>> result = new ArrayList<>();
+        Leaf leaf = findLeaf(prefix, Integer.MIN_VALUE);
+        int i = leaf.lowerBound(prefix, Integer.MIN_VALUE);
+        while (leaf != null) {
+            for (; i < leaf.count; i++) {
+                if (!leaf.nameStartsWith(i, prefix)) {
+                    return result;   // sorted, so no later name can match either
+                }
+                result.add(leaf.entry(i));
+            }
+            leaf = leaf.next;
+            i = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Returns all entries with fromName <= name < toName, in (name, id) order
+     * (like TreeMap.subMap(from, true, to, false), but by name only).
+     */
+    public List<Map.Entry<StudentKey, Book>> subMap(String fromName, String toName) {
+        List<Map.Entry<StudentKey, Book>> result = new ArrayList<>();
+        Leaf leaf = findLeaf(fromName, Integer.MIN_VALUE);
+        int i = leaf.lowerBound(fromName, Integer.MIN_VALUE);
+        while (leaf != null) {
+            for (; i < leaf.count; i++) {
+                if (leaf.compare(i, toName, Integer.MIN_VALUE) >= 0) {
+                    return result;
+                }
+                result.add(leaf.entry(i));
+            }
+            leaf = leaf.next;
+            i = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Calls action for every entry, in (name, id) order.
+     */
+    public void forEach(BiConsumer<? super StudentKey, ? super Book> action) {
+        for (Leaf leaf = firstLeaf; leaf != null; leaf = leaf.next) {
+            for (int i = 0; i < leaf.count; i++) {
+                action.accept(new StudentKey(leaf.ids[i], leaf.name(i)), leaf.books[i]);
+            }
+        }
+    }
+
+    /**
+     * Approximate heap usage in bytes (not counting the Book objects).
+     */
+    public long memoryBytes() {
+        return memoryBytes(root);
+    }
+
+    // ---------------------------------------------------------------------
+
+    /**
+     * The positions of students in (name, id) order.  The sort is stable, so for a
+     * student that appears twice the later position comes later (and wins in putAll()).
+     */
+    private static int[] sortedOrder(StudentKey[] students) {
+        int n = students.length;
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++) {
+            sorted = FavouriteBookRegistry.BY_NAME.compare(students[i - 1], students[i]) <= 0;
+        }
+        int[] order = new int[n];
+        if (sorted) {
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> FavouriteBookRegistry.BY_NAME.compare(students[a], students[b]));
+        for (int i = 0; i < n; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    private Leaf findLeaf(String name, int id) {
+        Node node = root;
+        while (node instanceof Inner) {
+            Inner inner = (Inner) node;
+            node = inner.children[inner.childIndex(name, id)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Inserts into the subtree below node.  If node had to be split, returns the
+     * new right-hand node and its first key, to be added to the parent.
+     */
+    private Split insert(Node node, String name, int id, Book book) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = leaf.lowerBound(name, id);
+            if (i < leaf.count && leaf.compare(i, name, id) == 0) {
+                previousValue = leaf.books[i];
+                leaf.books[i] = book;
+                return null;
+            }
+            if (leaf.count < MAX_ENTRIES) {
+                leaf.insertAt(i, name, id, book);
+                return null;
+            }
+            Leaf right = leaf.splitOffRightHalf();
+            if (i <= leaf.count) {
+                leaf.insertAt(i, name, id, book);
+            } else {
+                right.insertAt(i - leaf.count, name, id, book);
+            }
+            return new Split(right.name(0), right.ids[0], right);
+        }
+
+        Inner inner = (Inner) node;
+        int c = inner.childIndex(name, id);
+        Split childSplit = insert(inner.children[c], name, id, book);
+        if (childSplit == null) {
+            return null;
+        }
+        if (inner.count < MAX_CHILDREN) {
+            inner.insertChild(c + 1, childSplit);
+            return null;
+        }
+        // this inner node is full too: split it, and pass its middle key up
+        Inner right = new Inner();
+        int half = inner.count / 2;
+        String upName = inner.separatorNames[half - 1];
+        int upId = inner.separatorIds[half - 1];
+        for (int j = half; j < inner.count; j++) {
+            right.children[j - half] = inner.children[j];
+            inner.children[j] = null;
+            if (j > half) {
+                right.separatorNames[j - half - 1] = inner.separatorNames[j - 1];
+                right.separatorIds[j - half - 1] = inner.separatorIds[j - 1];
+            }
+        }
+        right.count = inner.count - half;
+        inner.count = half;
+        if (c + 1 <= half) {
+            inner.insertChild(c + 1, childSplit);
+        } else {
+            right.insertChild(c + 1 - half, childSplit);
+        }
+        return new Split(upName, upId, right);
+    }
+
+    private static long memoryBytes(Node node) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return 32 + 16 + 4L * leaf.ids.length + 16 + 4L * leaf.books.length
+                    + 16 + 4L * leaf.starts.length + 16 + 2L * leaf.chars.length;
+        }
+        Inner inner = (Inner) node;
+        long bytes = 24 + 16 + 4L * inner.children.length + 16 + 4L * inner.separatorIds.length
+                + 16 + 4L * inner.separatorNames.length;
+        for (int i = 0; i < inner.count; i++) {
+            bytes += memoryBytes(inner.children[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares name with the chars page[start..end), in the same way as String.compareTo().
+     */
+    private static int compareName(String name, char[] page, int start, int end) {
+        int length = end - start;
+        int n = Math.min(name.length(), length);
+        for (int k = 0; k < n; k++) {
+            char c1 = name.charAt(k);
+            char c2 = page[start + k];
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return name.length() - length;
+    }
+
+    private abstract static class Node {
+        int count;   // entries in a leaf, children in an inner node
+    }
+
+    private static final class Leaf extends Node {
+        final int[] ids = new int[MAX_ENTRIES];
+        final Book[] books = new Book[MAX_ENTRIES];
+        final int[] starts = new int[MAX_ENTRIES + 1];  // name i is chars[starts[i] .. starts[i + 1])
+        char[] chars = new char[MAX_ENTRIES * 12];      // the names, packed one after another
+        Leaf next;
+
+        /** Compares entry i with (name, id); negative if entry i comes first. */
+        int compare(int i, String name, int id) {
+            int c = -compareName(name, chars, starts[i], starts[i + 1]);
+            return c != 0 ? c : Integer.compare(ids[i], id);
+        }
+
+        /** Index of the first entry >= (name, id), or count if there is none. */
+        int lowerBound(String name, int id) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, name, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean nameStartsWith(int i, String prefix) {
+            int start = starts[i];
+            if (starts[i + 1] - start < prefix.length()) {
+                return false;
+            }
+            for (int k = 0; k < prefix.length(); k++) {
+                if (chars[start + k] != prefix.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String name(int i) {
+            return new String(chars, starts[i], starts[i + 1] - starts[i]);
+        }
+
+        Map.Entry<StudentKey, Book> entry(int i) {
+            return new AbstractMap.SimpleImmutableEntry<>(new StudentKey(ids[i], name(i)), books[i]);
+        }
+
+        void insertAt(int i, String name, int id, Book book) {
+            int length = name.length();
+            int used = starts[count];
+            if (used + length > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(chars.length * 2, used + length));
+            }
+            int at = starts[i];
+            System.arraycopy(chars, at, chars, at + length, used - at);
+            name.getChars(0, length, chars, at);
+            for (int k = count; k > i; k--) {
+                starts[k + 1] = starts[k] + length;
+            }
+            starts[i + 1] = at + length;
+            System.arraycopy(ids, i, ids, i + 1, count - i);
+            System.arraycopy(books, i, books, i + 1, count - i);
+            ids[i] = id;
+            books[i] = book;
+            count++;
+        }
+
+        void removeAt(int i) {
+            int at = starts[i];
+            int length = starts[i + 1] - at;
+            System.arraycopy(chars, at + length, chars, at, starts[count] - at - length);
+            for (int k = i + 1; k < count; k++) {
+                starts[k] = starts[k + 1] - length;
+            }
+            System.arraycopy(ids, i + 1, ids, i, count - i - 1);
+            System.arraycopy(books, i + 1, books, i, count - i - 1);
+            count--;
+            books[count] = null;
+        }
+
+        /** Moves the upper half of this leaf's entries into a new leaf, which is returned. */
+        Leaf splitOffRightHalf() {
+            Leaf right = new Leaf();
+            int half = count / 2;
+            int moved = count - half;
+            int charStart = starts[half];
+            int charCount = starts[count] - charStart;
+            if (charCount > right.chars.length) {
+                right.chars = new char[charCount];
+            }
+            System.arraycopy(chars, charStart, right.chars, 0, charCount);
+            for (int k = 0; k <= moved; k++) {
+                right.starts[k] = starts[half + k] - charStart;
+            }
+            System.arraycopy(ids, half, right.ids, 0, moved);
+            System.arraycopy(books, half, right.books, 0, moved);
+            Arrays.fill(books, half, count, null);
+            right.count = moved;
+            count = half;
+            right.next = next;
+            next = right;
+            return right;
+        }
+    }
+
+    private static final class Inner extends Node {
+        // separator i is the first key in children[i + 1]
+        final String[] separatorNames = new String[MAX_CHILDREN - 1];
+        final int[] separatorIds = new int[MAX_CHILDREN - 1];
+        final Node[] children = new Node[MAX_CHILDREN];
+
+        /** Index of the child whose keys include (name, id). */
+        int childIndex(String name, int id) {
+            int low = 0;
+            int high = count - 1;   // number of separators
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compareSeparator(mid, name, id) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** Compares separator s with (name, id). */
+        private int compareSeparator(int s, String name, int id) {
+            int c = separatorNames[s].compareTo(name);
+            return c != 0 ? c : Integer.compare(separatorIds[s], id);
+        }
+
+        /** Adds split.right as child number position (position >= 1). */
+        void insertChild(int position, Split split) {
+            System.arraycopy(children, position, children, position + 1, count - position);
+            System.arraycopy(separatorNames, position - 1, separatorNames, position, count - position);
+            System.arraycopy(separatorIds, position - 1, separatorIds, position, count - position);
+            children[position] = split.right;
+            separatorNames[position - 1] = split.name;
+            separatorIds[position - 1] = split.id;
+            count++;
+        }
+    }
+
+    private static final class Split {
+        final String name;
+        final int id;
+        final Node right;
+
+        Split(String name, int id, Node right) {
+            this.name = name;
+            this.id = id;
+            this.right = right;
+        }
+    }
+}
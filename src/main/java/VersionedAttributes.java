@@ -0,0 +1,146 @@
+/**
+ * VersionedAttributes - the user => attributes map of map8(), readable without locks while it is updated.
+ * <p>
+ * The whole map is a PersistentHashMap of user name => (a PersistentHashMap of
+ * attribute name => value).  The current version is held in an
+ * AtomicReference:
+ * - snapshot() just returns the current version.  It never changes, so a
+ *   reader can look at it for as long as it likes and always sees one
+ *   consistent point in time - no locks, no copying.
+ * - an update builds a new version from the current one (sharing everything
+ *   it does not change), and then swaps it in with compareAndSet().  If
+ *   another writer swapped in a version first, the update is simply made
+ *   again on top of that version.
+ * <p>
+ * update() makes many changes as one new version, using a
+ * PersistentHashMap.Builder.  Because an update may be retried, the code
+ * passed to update() must only change the builder (no other side effects).
+ * <p>
+ * Example:
+ *   VersionedAttributes attributes = VersionedAttributes.from(usersMap);
+ *   Map<String, PersistentHashMap<String, String>> before = attributes.snapshot();
+ *   attributes.put("John", "Hair", "Grey");
+ *   before.get("John").get("Hair");   // still the old value
+ */
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public class VersionedAttributes {
+
+    private final AtomicReference<PersistentHashMap<String, PersistentHashMap<String, String>>> current =
+            new AtomicReference<>(PersistentHashMap.empty());
+
+    /**
+     * Builds the first version from a map like the one in map8().
+     */
+    public static VersionedAttributes from(Map<String, ? extends Map<String, String>> usersMap) {
+        VersionedAttributes attributes = new VersionedAttributes();
+        attributes.update(users -> {
+            for (Map.Entry<String, ? extends Map<String, String>> user : usersMap.entrySet()) {
+                users.put(user.getKey(), PersistentHashMap.copyOf(user.getValue()));
+            }
+        });
+        return attributes;
+    }
+
+    /**
+     * The current version of the whole map.  It will never change.
+     */
+    public PersistentHashMap<String, PersistentHashMap<String, String>> snapshot() {
+        return current.get();
+    }
+
+    public int userCount() {
+        return current.get().size();
+    }
+
+    /**
+     * Returns the value of a user's attribute, or null.
+     */
+    public String get(String userName, String attributeName) {
+        PersistentHashMap<String, String> attributes = current.get().get(userName);
+        return attributes == null ? null : attributes.get(attributeName);
+    }
+
+    /**
+     * Returns all attributes of a user (an immutable map), or null if there is no such user.
+     */
+    public PersistentHashMap<String, String> attributesOf(String userName) {
+        return current.get().get(userName);
+    }
+
+    /**
+     * Sets a user's attribute (adding the user if needed), and returns the previous value (or null).
+     */
+    public String put(String userName, String attributeName, String value) {
+        Objects.requireNonNull(userName, "userName");
+        while (true) {
+            PersistentHashMap<String, PersistentHashMap<String, String>> users = current.get();
+            PersistentHashMap<String, String> attributes = users.get(userName);
+            if (attributes == null) {
+                attributes = PersistentHashMap.empty();
+            }
+            String previous = attributes.get(attributeName);
+            PersistentHashMap<String, String> changed = attributes.with(attributeName, value);
+            if (changed == attributes && users.containsKey(userName)) {
+                return previous;   // same value already there
+            }
+            if (current.compareAndSet(users, users.with(userName, changed))) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Removes a user's attribute (the user stays, even with no attributes), and returns its value (or null).
+     */
+    public String remove(String userName, String attributeName) {
+        while (true) {
+            PersistentHashMap<String, PersistentHashMap<String, String>> users = current.get();
+            PersistentHashMap<String, String> attributes = users.get(userName);
+            String previous = attributes == null ? null : attributes.get(attributeName);
+            if (previous == null) {
+                return null;
+            }
+            if (current.compareAndSet(users, users.with(userName, attributes.without(attributeName)))) {
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * Removes a user and all their attributes.  Returns false if there was no such user.
+     */
+    public boolean removeUser(String userName) {
+        while (true) {
+            PersistentHashMap<String, PersistentHashMap<String, String>> users = current.get();
+            PersistentHashMap<String, PersistentHashMap<String, String>> changed = users.without(userName);
+            if (changed == users) {
+                return false;
+            }
+            if (current.compareAndSet(users, changed)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Makes many changes as a single new version.  edits is given a builder
+     * holding the current version; readers see either none or all of its changes.
+     * edits may be called more than once (if another update wins the race),
+     * so it must not do anything except change the builder.
+     */
+    public void update(Consumer<PersistentHashMap.Builder<String, PersistentHashMap<String, String>>> edits) {
+        while (true) {
+            PersistentHashMap<String, PersistentHashMap<String, String>> users = current.get();
+            PersistentHashMap.Builder<String, PersistentHashMap<String, String>> builder = users.toBuilder();
+            edits.accept(builder);
+            if (current.compareAndSet(users, builder.build())) {
+                return;
+            }
+        }
+    }
+}